@@ -9,6 +9,8 @@
  * The PdxReadCmd class enables you to test the class from the commandline:
  * java -jar PdxReader.jar <filename.db>
  * This should echo all fields to the terminal.
+ * java -jar PdxReader.jar query <directory> "<sql>"
+ * runs a query over the tables in a directory, see nl.pwy.pdxreader.PdxQuery.
  *
  * Fileformat information: Randy Beck.
  *
@@ -18,8 +20,13 @@
  * any later version.
  */
 
+import nl.pwy.pdxreader.PdxQuery;
 import nl.pwy.pdxreader.PdxReader;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
 /**
  * @author Robin van Emden
  */
@@ -29,8 +36,13 @@ public class PdxReaderCmd {
 
     public static void main(String[] args) {
 
+        if (args.length == 3 && "query".equals(args[0])) {
+            System.exit(query(new File(args[1]), args[2]));
+        }
+
         if (args.length != 1 || args[0] == null || args[0].equals("")) {
-            System.err.println('\n' + "usage:   java -jar PdxReader.jar <filename.db> ");
+            System.err.println('\n' + "usage:   java -jar PdxReader.jar <filename.db> " +
+                    '\n' + "         java -jar PdxReader.jar query <directory> \"<sql>\" ");
             System.exit(1);
         }
 
@@ -53,4 +65,37 @@ public class PdxReaderCmd {
         }
     }
 
-}
\ No newline at end of file
+    /**
+     * Runs a query and writes the result as tab separated lines, labels first
+     *
+     * @return exit status
+     */
+    public static int query(File directory, String sql) {
+        try {
+            PdxQuery query = PdxQuery.parse(sql);
+            System.out.println(join(query.getColumnLabels(directory)));
+            query.run(directory, new Consumer<String[]>() {
+                public void accept(String[] row) {
+                    System.out.println(join(row));
+                }
+            });
+            return 0;
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return 2;
+        } catch (IOException e) {
+            System.err.println(e);
+            return 1;
+        }
+    }
+
+    private static String join(String[] values) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) sb.append('\t');
+            sb.append(values[i]);
+        }
+        return sb.toString();
+    }
+
+}
@@ -5,6 +5,14 @@ import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+/**
+ * Little endian DataInput.
+ *
+ * @deprecated the reader no longer uses streams for header or block data;
+ * values are read at absolute offsets of the byte array instead, see
+ * PdxHeader.parse(byte[]).
+ */
+@Deprecated
 public class LEDataInputStream implements DataInput {
     /**
      * constructor
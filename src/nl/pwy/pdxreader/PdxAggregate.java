@@ -0,0 +1,188 @@
+/*
+ * PdxAggregate.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * Count, sum, minimum, maximum and average of a numeric column, computed
+ * from the record bytes without decoding cells to strings. Dates are
+ * aggregated as the stored day number, times as milliseconds.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxAggregate {
+    private long count;
+    private long countNonNull;
+    private double sum;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    PdxAggregate() {
+    }
+
+    PdxAggregate(long count, long countNonNull, double sum, double min, double max) {
+        this.count = count;
+        this.countNonNull = countNonNull;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Adds the values of one field over a run of records.
+     *
+     * @param type       field type
+     * @param data       block bytes
+     * @param off        offset of the field in the first record
+     * @param numRecords number of records
+     * @param recordSize distance between records
+     */
+    void accumulate(int type, byte[] data, int off, int numRecords, int recordSize) {
+        long nonNull = 0;
+        double s = 0;
+        double lo = min;
+        double hi = max;
+        int end = off + numRecords * recordSize;
+        switch (type) {
+            case PdxReader.pxfShort: {
+                for (int p = off; p < end; p += recordSize) {
+                    int raw = PdxFieldCodec.rawShort(data, p);
+                    if (raw == 0) continue;
+                    double v = (short) (raw ^ 0x8000);
+                    nonNull++;
+                    s += v;
+                    if (v < lo) lo = v;
+                    if (v > hi) hi = v;
+                }
+                break;
+            }
+            case PdxReader.pxfDate:
+            case PdxReader.pxfLong:
+            case PdxReader.pxfTime:
+            case PdxReader.pxfAutoInc: {
+                for (int p = off; p < end; p += recordSize) {
+                    int raw = PdxFieldCodec.rawInt(data, p);
+                    if (raw == 0) continue;
+                    double v = raw ^ 0x80000000;
+                    nonNull++;
+                    s += v;
+                    if (v < lo) lo = v;
+                    if (v > hi) hi = v;
+                }
+                break;
+            }
+            case PdxReader.pxfTimestamp: {
+                for (int p = off; p < end; p += recordSize) {
+                    long raw = PdxFieldCodec.rawLong(data, p);
+                    if (raw == 0) continue;
+                    double v = raw ^ 0x8000000000000000L;
+                    nonNull++;
+                    s += v;
+                    if (v < lo) lo = v;
+                    if (v > hi) hi = v;
+                }
+                break;
+            }
+            case PdxReader.pxfCurrency:
+            case PdxReader.pxfNumber: {
+                for (int p = off; p < end; p += recordSize) {
+                    long raw = PdxFieldCodec.rawLong(data, p);
+                    if (raw == 0) continue;
+                    double v = Double.longBitsToDouble(raw ^ 0x8000000000000000L);
+                    nonNull++;
+                    s += v;
+                    if (v < lo) lo = v;
+                    if (v > hi) hi = v;
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("Field type " + type + " is not numeric");
+        }
+        count += numRecords;
+        countNonNull += nonNull;
+        sum += s;
+        min = lo;
+        max = hi;
+    }
+
+    /**
+     * Adds a single value, NaN counting as blank.
+     */
+    void add(double v) {
+        count++;
+        if (v != v) return;
+        countNonNull++;
+        sum += v;
+        if (v < min) min = v;
+        if (v > max) max = v;
+    }
+
+    /**
+     * Combines the aggregate of another part of the same column.
+     */
+    void merge(PdxAggregate other) {
+        count += other.count;
+        countNonNull += other.countNonNull;
+        sum += other.sum;
+        if (other.min < min) min = other.min;
+        if (other.max > max) max = other.max;
+    }
+
+    /**
+     * Number of records.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of records where the field is not blank.
+     */
+    public long getCountNonNull() {
+        return countNonNull;
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    /**
+     * Smallest value, NaN if every value is blank.
+     */
+    public double getMin() {
+        return countNonNull > 0 ? min : Double.NaN;
+    }
+
+    /**
+     * Largest value, NaN if every value is blank.
+     */
+    public double getMax() {
+        return countNonNull > 0 ? max : Double.NaN;
+    }
+
+    /**
+     * Average of the values that are not blank, NaN if there are none.
+     */
+    public double getAvg() {
+        return countNonNull > 0 ? sum / countNonNull : Double.NaN;
+    }
+
+    public String toString() {
+        return "count=" + count + " countNonNull=" + countNonNull + " sum=" + sum +
+                " min=" + getMin() + " max=" + getMax() + " avg=" + getAvg();
+    }
+}
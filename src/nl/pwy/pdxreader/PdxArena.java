@@ -0,0 +1,131 @@
+/*
+ * PdxArena.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Owner of off-heap memory. Buffers are allocated outside the Java heap,
+ * so they add nothing to heap size or GC marking, and close() releases all
+ * of them at once instead of waiting for the collector.
+ * <p>
+ * The memory is freed through sun.misc.Unsafe.invokeCleaner when the
+ * runtime has it, otherwise the buffers are left to the collector.
+ * Touching a freed buffer can crash the JVM, so readers in this package
+ * hold acquire() over every access and close() waits until they are done.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxArena implements Closeable {
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            unsafe = f.get(null);
+            invokeCleaner = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception ignored) {
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    private long allocated;
+    private volatile boolean open = true;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Allocates a zeroed off-heap buffer owned by this arena.
+     *
+     * @param bytes size of the buffer
+     * @return direct buffer, valid until the arena is closed
+     */
+    public synchronized ByteBuffer allocate(int bytes) {
+        if (!open) throw new IllegalStateException("Arena is closed");
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes);
+        buffers.add(buffer);
+        allocated += bytes;
+        return buffer;
+    }
+
+    /**
+     * Number of bytes allocated and not yet released.
+     */
+    public synchronized long getAllocated() {
+        return allocated;
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Starts a read of the buffers; every successful acquire() must be
+     * followed by release(). Do not allocate or close in between.
+     *
+     * @return false if the arena is closed, nothing to release then
+     */
+    boolean acquire() {
+        lock.readLock().lock();
+        if (open) return true;
+        lock.readLock().unlock();
+        return false;
+    }
+
+    void release() {
+        lock.readLock().unlock();
+    }
+
+    /**
+     * Releases all buffers of the arena, after the reads in progress.
+     */
+    public synchronized void close() {
+        if (lock.getReadHoldCount() > 0) {
+            // waiting for our own read would never end
+            throw new IllegalStateException("Arena closed during a read of its buffers");
+        }
+        lock.writeLock().lock();
+        try {
+            if (!open) return;
+            open = false;
+            for (ByteBuffer buffer : buffers) {
+                if (INVOKE_CLEANER != null) {
+                    try {
+                        INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    } catch (Exception ignored) {
+                    }
+                }
+            }
+            buffers.clear();
+            allocated = 0;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+}
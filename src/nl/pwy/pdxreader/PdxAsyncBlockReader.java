@@ -0,0 +1,244 @@
+/*
+ * PdxAsyncBlockReader.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Iterates datablocks with up to depth reads in flight on an
+ * AsynchronousFileChannel, so on high latency storage the next blocks
+ * are on their way while the caller decodes the current one.
+ * <p>
+ * The blocks to read are all blocks of the file in physical order, a
+ * given list, or the chain from firstBlock. Physical order also visits
+ * free blocks; their records are stale unless the block is in the chain.
+ * The chain is followed without reading the block headers first: the
+ * blocks physically after the one the chain goes to next are read
+ * speculatively, and guesses that the chain does not take are dropped.
+ * Blocks handed back through release() are reused for later reads.
+ *
+ * @author Robin van Emden
+ */
+public class PdxAsyncBlockReader implements Iterator<PdxBlock>, Closeable {
+    private final PdxHeader header;
+    private final AsynchronousFileChannel channel;
+    private final int[] blocks;
+    private final int depth;
+    private final ArrayBlockingQueue<byte[]> pool;
+    private final ArrayDeque<CompletableFuture<PdxBlock>> inFlight = new ArrayDeque<CompletableFuture<PdxBlock>>();
+    private int issued;
+    private int delivered;
+
+    // following the chain: reads by block number, the block wanted next, 0 at the end
+    private final Map<Integer, CompletableFuture<PdxBlock>> ahead;
+    private final boolean[] visited;
+    private int wanted;
+
+    /**
+     * Constructor, reads all blocks of the file in physical order
+     *
+     * @param file  file to read the blocks from
+     * @param depth number of reads kept in flight
+     * @throws IOException
+     */
+    public PdxAsyncBlockReader(PdxFile file, int depth) throws IOException {
+        this(file, physicalOrder(file.getHeader()), depth, depth * 2);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file     file to read the blocks from
+     * @param blocks   block numbers in the order to deliver them, null to
+     *                 follow the chain from firstBlock
+     * @param depth    number of reads kept in flight
+     * @param poolSize number of released buffers kept for reuse
+     * @throws IOException
+     */
+    public PdxAsyncBlockReader(PdxFile file, int[] blocks, int depth, int poolSize) throws IOException {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Prefetch depth " + depth);
+        }
+        this.header = file.getHeader();
+        this.channel = AsynchronousFileChannel.open(file.getFile().toPath(), StandardOpenOption.READ);
+        this.depth = depth;
+        this.pool = new ArrayBlockingQueue<byte[]>(Math.max(1, poolSize));
+        if (blocks != null) {
+            this.blocks = blocks.clone();
+            this.ahead = null;
+            this.visited = null;
+            fill();
+        } else {
+            this.blocks = null;
+            this.ahead = new HashMap<Integer, CompletableFuture<PdxBlock>>();
+            this.visited = new boolean[header.getFileBlocks() + 1];
+            this.wanted = header.getFirstBlock();
+            if (wanted < 1 || wanted > header.getFileBlocks()) wanted = 0;
+            speculate();
+        }
+    }
+
+    private static int[] physicalOrder(PdxHeader header) {
+        int[] blocks = new int[header.getFileBlocks()];
+        for (int i = 0; i < blocks.length; i++) {
+            blocks[i] = i + 1;
+        }
+        return blocks;
+    }
+
+    private void fill() {
+        while (issued < blocks.length && inFlight.size() < depth) {
+            inFlight.add(read(blocks[issued++]));
+        }
+    }
+
+    /**
+     * Keeps reads in flight for the wanted block and the blocks physically
+     * after it; reads of blocks the chain left behind are dropped, their
+     * buffers go back to the pool once the read completes.
+     */
+    private void speculate() {
+        Iterator<Map.Entry<Integer, CompletableFuture<PdxBlock>>> it = ahead.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Integer, CompletableFuture<PdxBlock>> entry = it.next();
+            int b = entry.getKey();
+            if (wanted == 0 || b < wanted || b >= wanted + depth) {
+                it.remove();
+                entry.getValue().thenAccept(new Consumer<PdxBlock>() {
+                    public void accept(PdxBlock block) {
+                        release(block);
+                    }
+                });
+            }
+        }
+        if (wanted == 0) return;
+        for (int b = wanted; b < wanted + depth && b <= header.getFileBlocks(); b++) {
+            if (!visited[b] && !ahead.containsKey(b)) ahead.put(b, read(b));
+        }
+    }
+
+    private CompletableFuture<PdxBlock> read(final int blockNumber) {
+        final CompletableFuture<PdxBlock> result = new CompletableFuture<PdxBlock>();
+        byte[] data = pool.poll();
+        if (data == null) data = new byte[header.getBlockSize()];
+        final byte[] buffer = data;
+        final long start = header.getBlockOffset(blockNumber);
+        channel.read(ByteBuffer.wrap(buffer), start, null, new CompletionHandler<Integer, Object>() {
+            private long position = start;
+
+            public void completed(Integer n, Object attachment) {
+                if (n < 0) {
+                    result.completeExceptionally(new EOFException("Unexpected end of file at " + position));
+                    return;
+                }
+                position += n;
+                ByteBuffer dst = ByteBuffer.wrap(buffer, (int) (position - start), (int) (buffer.length - (position - start)));
+                if (!dst.hasRemaining()) {
+                    result.complete(new PdxBlock(header, blockNumber, buffer));
+                    return;
+                }
+                channel.read(dst, position, null, this);
+            }
+
+            public void failed(Throwable exc, Object attachment) {
+                result.completeExceptionally(exc);
+            }
+        });
+        return result;
+    }
+
+    public boolean hasNext() {
+        return blocks != null ? delivered < blocks.length : wanted != 0;
+    }
+
+    public PdxBlock next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        if (blocks == null) {
+            PdxBlock block = get(ahead.remove(wanted));
+            visited[wanted] = true;
+            delivered++;
+            int next = block.getNextBlock();
+            wanted = next > 0 && next <= header.getFileBlocks() && !visited[next] ? next : 0;
+            speculate();
+            return block;
+        }
+        CompletableFuture<PdxBlock> head = inFlight.poll();
+        delivered++;
+        fill();
+        return get(head);
+    }
+
+    private static PdxBlock get(CompletableFuture<PdxBlock> read) {
+        try {
+            return read.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Hands a block back when the caller is done with its data; the buffer
+     * is reused for a later read.
+     */
+    public void release(PdxBlock block) {
+        byte[] data = block.getData();
+        if (data != null && data.length == header.getBlockSize()) {
+            pool.offer(data);
+        }
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Closes the asynchronous channel, abandoning reads still in flight;
+     * does not close the PdxFile.
+     */
+    public void close() throws IOException {
+        inFlight.clear();
+        if (blocks != null) {
+            issued = blocks.length;
+            delivered = blocks.length;
+        } else {
+            ahead.clear();
+            wanted = 0;
+        }
+        channel.close();
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * PdxBlock.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * A PDX datablock: the block header and, when read in full, its bytes.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxBlock {
+    private final int blockNumber;
+    private final int nextBlock;
+    private final int prevBlock;
+    private final int addDataSize;
+    private final int numRecords;
+    private final int recordSize;
+    private final byte[] data;
+
+    /**
+     * Constructor, parses the block header at the start of data
+     *
+     * @param header      header of the table the block belongs to
+     * @param blockNumber block number, the first block is 1
+     * @param data        block bytes, at least the 6 byte block header
+     */
+    PdxBlock(PdxHeader header, int blockNumber, byte[] data) {
+        this.blockNumber = blockNumber;
+        this.nextBlock = PdxBytes.u16le(data, 0);
+        this.prevBlock = PdxBytes.u16le(data, 2);
+        this.addDataSize = PdxBytes.s16le(data, 4);
+        this.recordSize = header.getRecordSize();
+        this.numRecords = addDataSize < 0 || recordSize == 0 ? 0
+                : Math.min((addDataSize / recordSize) + 1, header.getRecordsPerBlock());
+        this.data = data.length > PdxHeader.BLOCK_HEADER_SIZE ? data : null;
+    }
+
+    /**
+     * Block number, the first block in the file is 1.
+     */
+    public int getBlockNumber() {
+        return blockNumber;
+    }
+
+    /**
+     * Next block in the chain, 0 for the last block.
+     */
+    public int getNextBlock() {
+        return nextBlock;
+    }
+
+    /**
+     * Previous block in the chain, 0 for the first block.
+     */
+    public int getPrevBlock() {
+        return prevBlock;
+    }
+
+    public int getAddDataSize() {
+        return addDataSize;
+    }
+
+    /**
+     * Number of records in this block.
+     *
+     * @return (addDataSize / recordSize) + 1, or 0 for an empty block,
+     * at most the number of records that fit in a block
+     */
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * Block bytes including the block header, null if only the
+     * block header was read.
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Offset of a record in getData().
+     *
+     * @param record record index within the block, starting at 0
+     */
+    public int getRecordOffset(int record) {
+        return PdxHeader.BLOCK_HEADER_SIZE + record * recordSize;
+    }
+}
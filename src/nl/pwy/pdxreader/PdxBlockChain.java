@@ -0,0 +1,149 @@
+/*
+ * PdxBlockChain.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Iterates the datablocks of a PDX file in logical order, following the
+ * nextBlock links from the header's firstBlock. Blocks that are not in
+ * the chain (free blocks holding stale records) are never read.
+ * <p>
+ * With prefetch enabled the next block in the chain is read on a
+ * background thread while the caller decodes the current one.
+ *
+ * @author Robin van Emden
+ */
+public class PdxBlockChain implements Iterator<PdxBlock>, Closeable {
+    private final PdxFile file;
+    private final int fileBlocks;
+    private final boolean[] visited;
+    private final int[] blocks;
+    private int index;
+    private ExecutorService prefetcher;
+    private Future<PdxBlock> pending;
+    private int nextBlock;
+
+    /**
+     * Constructor, starts at the header's firstBlock
+     *
+     * @param file     file to read the blocks from
+     * @param prefetch read the next block in the background
+     */
+    public PdxBlockChain(PdxFile file, boolean prefetch) {
+        this(file, null, prefetch);
+    }
+
+    /**
+     * Constructor, reads the given blocks instead of following the links
+     *
+     * @param file     file to read the blocks from
+     * @param blocks   block numbers in the order to read them, e.g. a part
+     *                 of chainBlocks(); null to follow the chain
+     * @param prefetch read the next block in the background
+     */
+    public PdxBlockChain(PdxFile file, int[] blocks, boolean prefetch) {
+        this.file = file;
+        this.fileBlocks = file.getHeader().getFileBlocks();
+        this.visited = new boolean[fileBlocks + 1];
+        this.blocks = blocks;
+        this.nextBlock = blocks == null ? file.getHeader().getFirstBlock() : blocks.length > 0 ? blocks[0] : 0;
+        if (prefetch) {
+            prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "PdxBlockChain-prefetch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            schedule();
+        }
+    }
+
+    /**
+     * Is there another block in the chain? A link that points outside
+     * the file, or back to a block already visited, ends the chain.
+     */
+    public boolean hasNext() {
+        return nextBlock > 0 && nextBlock <= fileBlocks && !visited[nextBlock];
+    }
+
+    public PdxBlock next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        PdxBlock block;
+        try {
+            block = pending != null ? pending.get() : file.readBlock(nextBlock);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw new UncheckedIOException((IOException) cause);
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        pending = null;
+        visited[nextBlock] = true;
+        if (blocks == null) {
+            nextBlock = block.getNextBlock();
+        } else {
+            nextBlock = ++index < blocks.length ? blocks[index] : 0;
+        }
+        if (prefetcher != null) {
+            schedule();
+        }
+        return block;
+    }
+
+    private void schedule() {
+        if (!hasNext()) {
+            close();
+            return;
+        }
+        final int blockNo = nextBlock;
+        pending = prefetcher.submit(new Callable<PdxBlock>() {
+            public PdxBlock call() throws IOException {
+                return file.readBlock(blockNo);
+            }
+        });
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Stops the prefetch thread; does not close the PdxFile.
+     */
+    public void close() {
+        if (prefetcher != null) {
+            prefetcher.shutdown();
+            prefetcher = null;
+        }
+    }
+}
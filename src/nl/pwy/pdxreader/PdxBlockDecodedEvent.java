@@ -0,0 +1,48 @@
+/*
+ * PdxBlockDecodedEvent.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event for decoding a single PDX datablock.
+ *
+ * @author Robin van Emden
+ */
+@Name("nl.pwy.pdxreader.PdxBlockDecoded")
+@Label("Paradox Block Decoded")
+@Category({"Paradox", "PdxReader"})
+@Description("Decoding of the records in one datablock of a Paradox table")
+final class PdxBlockDecodedEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Block Number")
+    int blockNumber;
+
+    @Label("Record Count")
+    int recordCount;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+}
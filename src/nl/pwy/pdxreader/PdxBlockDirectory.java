@@ -0,0 +1,139 @@
+/*
+ * PdxBlockDirectory.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Record counts of the blocks in the chain, built from the block headers
+ * only. With the running totals a row number is found in O(log blocks),
+ * so any page of the table is read by decoding just the blocks it spans.
+ * <p>
+ * The directory is a snapshot: build a new one after the table changes.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxBlockDirectory {
+    private final PdxFile file;
+    private final int[] blocks;
+    private final long[] firstRow;
+
+    /**
+     * Constructor, walks the chain reading the 6 byte block headers
+     *
+     * @param file table to index
+     * @throws IOException
+     */
+    public PdxBlockDirectory(PdxFile file) throws IOException {
+        this.file = file;
+        PdxHeader header = file.getHeader();
+        int fileBlocks = header.getFileBlocks();
+        int[] chain = new int[fileBlocks];
+        long[] rows = new long[fileBlocks + 1];
+        boolean[] visited = new boolean[fileBlocks + 1];
+        int n = 0;
+        int block = header.getFirstBlock();
+        while (block > 0 && block <= fileBlocks && !visited[block]) {
+            visited[block] = true;
+            PdxBlock blockHeader = file.readBlockHeader(block);
+            chain[n] = block;
+            rows[n + 1] = rows[n] + blockHeader.getNumRecords();
+            n++;
+            block = blockHeader.getNextBlock();
+        }
+        this.blocks = Arrays.copyOf(chain, n);
+        this.firstRow = Arrays.copyOf(rows, n + 1);
+    }
+
+    /**
+     * Number of blocks in the chain.
+     */
+    public int getNumBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * Number of records in the chain.
+     */
+    public long getNumRecords() {
+        return firstRow[blocks.length];
+    }
+
+    /**
+     * Block number at a position in the chain.
+     *
+     * @param index position, the first block in the chain is 0
+     */
+    public int getBlock(int index) {
+        return blocks[index];
+    }
+
+    /**
+     * Row number of the first record of a block.
+     *
+     * @param index position in the chain; getNumBlocks() gives the number of records
+     */
+    public long getFirstRow(int index) {
+        return firstRow[index];
+    }
+
+    /**
+     * Position in the chain of the block holding a row.
+     *
+     * @param row row number, the first row is 0
+     * @return index for getBlock, -1 if the row is past the end
+     */
+    public int indexOf(long row) {
+        if (row < 0 || row >= getNumRecords()) return -1;
+        int lo = 0;
+        int hi = blocks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstRow[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Decodes a page of rows.
+     *
+     * @param offset number of rows to skip, the first row is 0
+     * @param limit  maximum number of rows
+     * @return decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public List<String[]> rows(long offset, int limit) throws IOException {
+        List<String[]> rows = new ArrayList<String[]>(Math.max(0, Math.min(limit, 1024)));
+        int index = indexOf(offset);
+        if (index < 0 || limit <= 0) return rows;
+        PdxRecordDecoder decoder = new PdxRecordDecoder(file.getHeader());
+        int skip = (int) (offset - firstRow[index]);
+        for (; index < blocks.length && rows.size() < limit; index++) {
+            PdxBlock block = file.readBlock(blocks[index]);
+            int count = (int) (firstRow[index + 1] - firstRow[index]);
+            for (int i = skip; i < count && rows.size() < limit; i++) {
+                rows.add(decoder.decode(block.getData(), block.getRecordOffset(i)));
+            }
+            skip = 0;
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,363 @@
+/*
+ * PdxBloomFilter.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Bloom filters over the values of selected alpha fields, one per block in
+ * the chain. An equality lookup, e.g. of an invoice number, reads only the
+ * blocks whose filter may hold the value; about 1 in 100 other blocks is
+ * read for nothing.
+ * <p>
+ * The filters are built by one scan and kept in a sidecar file next to the
+ * table (name.db.pbf). Like the PdxZoneMap sidecar it is only used while
+ * the table's size, modification time, change counters and block count
+ * are the ones it was built from.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxBloomFilter {
+    private static final int MAGIC = 0x50444246;
+    private static final int VERSION = 1;
+    private static final int BITS_PER_VALUE = 10;
+    private static final int HASHES = 7;
+
+    private final PdxFile file;
+    private final int[] fields;
+    private final int[] blocks;
+    private final long[][][] bits;
+
+    private PdxBloomFilter(PdxFile file, int[] fields, int[] blocks, long[][][] bits) {
+        this.file = file;
+        this.fields = fields;
+        this.blocks = blocks;
+        this.bits = bits;
+    }
+
+    /**
+     * Sidecar file of a table.
+     */
+    public static File sidecar(File table) {
+        return new File(table.getPath() + ".pbf");
+    }
+
+    /**
+     * Bloom filters of a table for the given fields. A valid sidecar that
+     * covers the fields is used as it is; otherwise the table is scanned for
+     * these fields and those of the old sidecar, and the sidecar is
+     * rewritten.
+     *
+     * @param file   table
+     * @param fields alpha fields to build filters for
+     * @return the filters
+     * @throws IOException
+     */
+    public static PdxBloomFilter open(PdxFile file, int... fields) throws IOException {
+        for (int field : fields) {
+            if (file.fieldType(field) != PdxReader.pxfAlpha) {
+                throw new IllegalArgumentException("Field " + field + " is not alpha");
+            }
+        }
+        PdxBloomFilter existing = openExisting(file);
+        int[] wanted = fields.clone();
+        if (existing != null) {
+            boolean covered = true;
+            for (int field : fields) {
+                covered &= existing.hasField(field);
+            }
+            if (covered) return existing;
+            wanted = Arrays.copyOf(existing.fields, existing.fields.length + fields.length);
+            System.arraycopy(fields, 0, wanted, existing.fields.length, fields.length);
+        }
+        Arrays.sort(wanted);
+        int n = 0;
+        for (int i = 0; i < wanted.length; i++) {
+            if (i == 0 || wanted[i] != wanted[i - 1]) wanted[n++] = wanted[i];
+        }
+        PdxBloomFilter filter = build(file, Arrays.copyOf(wanted, n));
+        try {
+            filter.save();
+        } catch (IOException ignored) {
+            // a read-only volume still gets the filters for this session
+        }
+        return filter;
+    }
+
+    /**
+     * Bloom filters from the sidecar, without scanning.
+     *
+     * @return the filters, null if there is no valid sidecar
+     * @throws IOException
+     */
+    public static PdxBloomFilter openExisting(PdxFile file) throws IOException {
+        File sidecar = sidecar(file.getFile());
+        if (!sidecar.isFile()) return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (!PdxZoneMap.readStamp(in, file)) return null;
+            int[] fields = new int[in.readUnsignedShort()];
+            for (int k = 0; k < fields.length; k++) {
+                fields[k] = in.readUnsignedShort();
+                if (fields[k] < 1 || fields[k] > file.getHeader().getNumFields()) return null;
+            }
+            int n = in.readInt();
+            int[] blocks = new int[n];
+            for (int b = 0; b < n; b++) {
+                blocks[b] = in.readUnsignedShort();
+            }
+            long[][][] bits = new long[fields.length][n][];
+            for (int k = 0; k < fields.length; k++) {
+                for (int b = 0; b < n; b++) {
+                    long[] words = new long[in.readUnsignedShort()];
+                    for (int w = 0; w < words.length; w++) {
+                        words[w] = in.readLong();
+                    }
+                    bits[k][b] = words;
+                }
+            }
+            return new PdxBloomFilter(file, fields, blocks, bits);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static PdxBloomFilter build(PdxFile file, int[] fields) throws IOException {
+        PdxHeader header = file.getHeader();
+        int capacity = header.getFileBlocks();
+        int[] blocks = new int[capacity];
+        long[][][] bits = new long[fields.length][capacity][];
+        int n = 0;
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                blocks[n] = block.getBlockNumber();
+                int words = Math.max(1, (block.getNumRecords() * BITS_PER_VALUE + 63) / 64);
+                for (int k = 0; k < fields.length; k++) {
+                    long[] filter = new long[Integer.highestOneBit(words * 2 - 1)];
+                    int fieldOffset = header.getFieldOffset(fields[k]);
+                    int width = header.getFieldWidth(fields[k]);
+                    for (int i = 0; i < block.getNumRecords(); i++) {
+                        int off = block.getRecordOffset(i) + fieldOffset;
+                        int len = trimmedLength(data, off, width);
+                        if (len > 0) add(filter, hash(data, off, len));
+                    }
+                    bits[k][n] = filter;
+                }
+                n++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        for (int k = 0; k < fields.length; k++) {
+            bits[k] = Arrays.copyOf(bits[k], n);
+        }
+        return new PdxBloomFilter(file, fields, Arrays.copyOf(blocks, n), bits);
+    }
+
+    private void save() throws IOException {
+        File sidecar = sidecar(file.getFile());
+        File temp = File.createTempFile("pdxbloom", ".tmp", sidecar.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                PdxZoneMap.writeStamp(out, file);
+                out.writeShort(fields.length);
+                for (int field : fields) {
+                    out.writeShort(field);
+                }
+                out.writeInt(blocks.length);
+                for (int block : blocks) {
+                    out.writeShort(block);
+                }
+                for (int k = 0; k < fields.length; k++) {
+                    for (long[] words : bits[k]) {
+                        out.writeShort(words.length);
+                        for (long word : words) {
+                            out.writeLong(word);
+                        }
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Length of an alpha value without the zero padding; values compare as
+     * if padded with zeros, so equal values have equal trimmed bytes.
+     */
+    private static int trimmedLength(byte[] b, int off, int len) {
+        while (len > 0 && b[off + len - 1] == 0) len--;
+        return len;
+    }
+
+    /**
+     * 64 bit FNV-1a with a final mix, split into two 32 bit hashes for
+     * double hashing.
+     */
+    private static long hash(byte[] b, int off, int len) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ (b[i] & 0xff)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static void add(long[] filter, long hash) {
+        int mask = filter.length * 64 - 1;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            filter[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    private static boolean contains(long[] filter, long hash) {
+        int mask = filter.length * 64 - 1;
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (h1 + i * h2) & mask;
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Is there a filter for a field?
+     */
+    public boolean hasField(int field) {
+        return slot(field) >= 0;
+    }
+
+    private int slot(int field) {
+        for (int k = 0; k < fields.length; k++) {
+            if (fields[k] == field) return k;
+        }
+        return -1;
+    }
+
+    /**
+     * Number of blocks in the chain.
+     */
+    public int getNumBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * Block number at a position in the chain.
+     *
+     * @param index position, the first block in the chain is 0
+     */
+    public int getBlock(int index) {
+        return blocks[index];
+    }
+
+    /**
+     * May a block hold a value of a field? Fields without a filter always may.
+     *
+     * @param index position of the block in the chain
+     * @param field field number
+     * @param value the value as ISO-8859-1 bytes, compared like PdxPredicate
+     */
+    boolean mightContain(int index, int field, byte[] value) {
+        int k = slot(field);
+        if (k < 0) return true;
+        int len = trimmedLength(value, 0, value.length);
+        return len > 0 && contains(bits[k][index], hash(value, 0, len));
+    }
+
+    /**
+     * May a block hold a value of a field?
+     *
+     * @param index position of the block in the chain
+     * @param field field number, must have a filter
+     * @param value the value, case sensitive
+     */
+    public boolean mightContain(int index, int field, String value) {
+        if (!hasField(field)) throw new IllegalArgumentException("No Bloom filter for field " + field);
+        return mightContain(index, field, value.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Decodes the records where a field equals a value, reading only the
+     * blocks whose filter may hold the value.
+     *
+     * @param field    field number, must have a filter
+     * @param value    the value, case sensitive
+     * @param consumer receives decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public void lookup(int field, String value, Consumer<String[]> consumer) throws IOException {
+        PdxHeader header = file.getHeader();
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        PdxPredicate predicate = new PdxPredicate(header, field, PdxPredicate.EQ, value);
+        int[] candidates = new int[blocks.length];
+        int n = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            if (mightContain(b, field, value)) candidates[n++] = blocks[b];
+        }
+        PdxBlockChain chain = new PdxBlockChain(file, Arrays.copyOf(candidates, n), true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (predicate.accept(data, recordOffset)) {
+                        consumer.accept(decoder.decode(data, recordOffset));
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+    }
+}
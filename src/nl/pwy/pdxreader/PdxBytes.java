@@ -0,0 +1,100 @@
+/*
+ * PdxBytes.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Reads multi-byte values at absolute offsets of a byte array or buffer.
+ * Header and block header fields are little endian, field data is big
+ * endian. The reads go through byte array view VarHandles, which the JIT
+ * turns into single (unaligned) loads.
+ *
+ * @author Robin van Emden
+ */
+final class PdxBytes {
+    private static final VarHandle SHORT_LE =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INT_LE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle SHORT_BE =
+            MethodHandles.byteArrayViewVarHandle(short[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle INT_BE =
+            MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle LONG_BE =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+    private PdxBytes() {
+    }
+
+    static int u8(byte[] b, int off) {
+        return b[off] & 0xff;
+    }
+
+    static short s16le(byte[] b, int off) {
+        return (short) SHORT_LE.get(b, off);
+    }
+
+    static int u16le(byte[] b, int off) {
+        return (short) SHORT_LE.get(b, off) & 0xffff;
+    }
+
+    static int s32le(byte[] b, int off) {
+        return (int) INT_LE.get(b, off);
+    }
+
+    static int u16be(byte[] b, int off) {
+        return (short) SHORT_BE.get(b, off) & 0xffff;
+    }
+
+    static int s32be(byte[] b, int off) {
+        return (int) INT_BE.get(b, off);
+    }
+
+    static long s64be(byte[] b, int off) {
+        return (long) LONG_BE.get(b, off);
+    }
+
+    /**
+     * 64 bit hash of a byte range, eight bytes per step. Not
+     * cryptographic; meant for telling changed blocks and records apart.
+     */
+    static long hash64(byte[] b, int off, int len) {
+        long h = 0x9e3779b97f4a7c15L ^ len;
+        int end = off + len;
+        int i = off;
+        for (; i + 8 <= end; i += 8) {
+            h = Long.rotateLeft(h ^ mix((long) LONG_BE.get(b, i)), 27) * 0x9e3779b97f4a7c15L;
+        }
+        long tail = 0;
+        for (; i < end; i++) {
+            tail = (tail << 8) | (b[i] & 0xff);
+        }
+        return mix(h ^ mix(tail));
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * PdxCatalog.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Index file describing the tables under one or more directories, so
+ * questions like "which tables have a field Invoice" or "which tables hold
+ * dates in March 1998" are answered without opening any table.
+ * <p>
+ * Tables are keyed by canonical path. update() only rescans a table when
+ * its modification time or size differs from the catalog, and drops
+ * tables that are gone; save() writes the catalog back.
+ * <pre>
+ * PdxCatalog catalog = new PdxCatalog(new File("archive.pdxcat"));
+ * catalog.update(new File("archive"), true);
+ * catalog.save();
+ * List&lt;PdxCatalogEntry&gt; tables = catalog.findRange("Day", "1-3-1998", "31-3-1998");
+ * </pre>
+ *
+ * @author Robin van Emden
+ */
+public class PdxCatalog {
+    private static final int MAGIC = 0x50445843;
+    private static final int VERSION = 1;
+
+    private final File indexFile;
+    private final Map<String, PdxCatalogEntry> entries = new TreeMap<String, PdxCatalogEntry>();
+
+    /**
+     * Constructor, loads the index file when it exists
+     *
+     * @param indexFile catalog file
+     * @throws IOException if the index file exists but can not be read
+     */
+    public PdxCatalog(File indexFile) throws IOException {
+        this.indexFile = indexFile;
+        if (!indexFile.exists()) return;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a catalog file: " + indexFile);
+            }
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                PdxCatalogEntry entry = PdxCatalogEntry.read(in);
+                entries.put(entry.getPath(), entry);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Brings the catalog up to date with the .db files in a directory.
+     * Tables that can not be parsed are left out.
+     *
+     * @param directory directory to index
+     * @param recursive also index subdirectories
+     * @return number of tables that were (re)scanned
+     * @throws IOException
+     */
+    public int update(File directory, boolean recursive) throws IOException {
+        Set<String> seen = new HashSet<String>();
+        int scanned = update(directory.getCanonicalFile(), recursive, seen);
+        String prefix = directory.getCanonicalPath() + File.separator;
+        List<String> gone = new ArrayList<String>();
+        for (String path : entries.keySet()) {
+            if (!path.startsWith(prefix) || seen.contains(path)) continue;
+            if (!recursive && path.indexOf(File.separatorChar, prefix.length()) >= 0) continue;
+            gone.add(path);
+        }
+        for (String path : gone) {
+            entries.remove(path);
+        }
+        return scanned;
+    }
+
+    private int update(File directory, boolean recursive, Set<String> seen) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) return 0;
+        int scanned = 0;
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (recursive) scanned += update(file, true, seen);
+                continue;
+            }
+            if (!file.getName().toLowerCase().endsWith(".db")) continue;
+            String path = file.getCanonicalPath();
+            seen.add(path);
+            long lastModified = file.lastModified();
+            long length = file.length();
+            PdxCatalogEntry entry = entries.get(path);
+            if (entry != null && entry.getLastModified() == lastModified && entry.getLength() == length) continue;
+            try {
+                PdxFile table = new PdxFile(file);
+                try {
+                    entries.put(path, PdxCatalogEntry.scan(table, path, lastModified, length));
+                } finally {
+                    table.close();
+                }
+                scanned++;
+            } catch (IOException e) {
+                entries.remove(path);
+            }
+        }
+        return scanned;
+    }
+
+    /**
+     * Writes the catalog to its index file, replacing it in one step.
+     *
+     * @throws IOException
+     */
+    public void save() throws IOException {
+        File parent = indexFile.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("pdxcat", ".tmp", parent);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(entries.size());
+                for (PdxCatalogEntry entry : entries.values()) {
+                    entry.write(out);
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * All tables, ordered by path.
+     */
+    public List<PdxCatalogEntry> getEntries() {
+        return new ArrayList<PdxCatalogEntry>(entries.values());
+    }
+
+    /**
+     * The entry of a table.
+     *
+     * @return the entry, null if the table is not in the catalog
+     * @throws IOException if the path can not be made canonical
+     */
+    public PdxCatalogEntry getEntry(File table) throws IOException {
+        return entries.get(table.getCanonicalPath());
+    }
+
+    /**
+     * Tables with a field of the given name, ignoring case.
+     */
+    public List<PdxCatalogEntry> findField(String name) {
+        List<PdxCatalogEntry> found = new ArrayList<PdxCatalogEntry>();
+        for (PdxCatalogEntry entry : entries.values()) {
+            if (entry.getFieldNumber(name) > 0) found.add(entry);
+        }
+        return found;
+    }
+
+    /**
+     * Tables with a numeric, date or time field of the given name that may
+     * hold a value in a range, going by the block minimums and maximums.
+     *
+     * @param name field name, ignoring case
+     * @param from lowest value, inclusive, written as in a query: d-m-yyyy for dates, h:m:s for times
+     * @param to   highest value, inclusive
+     */
+    public List<PdxCatalogEntry> findRange(String name, String from, String to) {
+        List<PdxCatalogEntry> found = new ArrayList<PdxCatalogEntry>();
+        for (PdxCatalogEntry entry : entries.values()) {
+            int field = entry.getFieldNumber(name);
+            if (field == 0 || !PdxFieldCodec.isNumeric(entry.getFieldType(field))) continue;
+            int type = entry.getFieldType(field);
+            if (entry.mayContain(field, PdxPredicate.parseNumber(type, from), PdxPredicate.parseNumber(type, to))) {
+                found.add(entry);
+            }
+        }
+        return found;
+    }
+}
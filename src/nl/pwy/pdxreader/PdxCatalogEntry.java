@@ -0,0 +1,302 @@
+/*
+ * PdxCatalogEntry.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * What PdxCatalog knows about one table: the file it was taken from, the
+ * schema from the header and, per block in the chain, the record count
+ * and the minimum and maximum of every numeric field.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxCatalogEntry {
+    private final String path;
+    private final long lastModified;
+    private final long length;
+    private final int numRecords;
+    private final int fileVersionID;
+    private final int dosCodePage;
+    private final String[] names;
+    private final int[] types;
+    private final int[] sizes;
+    private final int[] blocks;
+    private final int[] blockRecords;
+    private final double[][] mins;
+    private final double[][] maxs;
+
+    private PdxCatalogEntry(String path, long lastModified, long length, int numRecords, int fileVersionID,
+                            int dosCodePage, String[] names, int[] types, int[] sizes, int[] blocks,
+                            int[] blockRecords, double[][] mins, double[][] maxs) {
+        this.path = path;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.numRecords = numRecords;
+        this.fileVersionID = fileVersionID;
+        this.dosCodePage = dosCodePage;
+        this.names = names;
+        this.types = types;
+        this.sizes = sizes;
+        this.blocks = blocks;
+        this.blockRecords = blockRecords;
+        this.mins = mins;
+        this.maxs = maxs;
+    }
+
+    /**
+     * Reads the header and scans the chain of a table.
+     */
+    static PdxCatalogEntry scan(PdxFile file, String path, long lastModified, long length) throws IOException {
+        PdxHeader header = file.getHeader();
+        int numFields = header.getNumFields();
+        String[] names = new String[numFields + 1];
+        int[] types = new int[numFields + 1];
+        int[] sizes = new int[numFields + 1];
+        for (int f = 1; f <= numFields; f++) {
+            names[f] = header.getFieldName(f);
+            types[f] = header.getFieldType(f);
+            sizes[f] = header.getFieldSize(f);
+        }
+        int[] blocks = new int[header.getFileBlocks()];
+        int[] blockRecords = new int[blocks.length];
+        double[][] mins = new double[numFields + 1][];
+        double[][] maxs = new double[numFields + 1][];
+        for (int f = 1; f <= numFields; f++) {
+            if (PdxFieldCodec.isNumeric(types[f])) {
+                mins[f] = new double[blocks.length];
+                maxs[f] = new double[blocks.length];
+            }
+        }
+        int n = 0;
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                blocks[n] = block.getBlockNumber();
+                blockRecords[n] = block.getNumRecords();
+                for (int f = 1; f <= numFields; f++) {
+                    if (mins[f] == null) continue;
+                    PdxAggregate a = new PdxAggregate();
+                    a.accumulate(types[f], block.getData(), block.getRecordOffset(0) + header.getFieldOffset(f),
+                            block.getNumRecords(), header.getRecordSize());
+                    mins[f][n] = a.getMin();
+                    maxs[f][n] = a.getMax();
+                }
+                n++;
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        for (int f = 1; f <= numFields; f++) {
+            if (mins[f] == null) continue;
+            mins[f] = Arrays.copyOf(mins[f], n);
+            maxs[f] = Arrays.copyOf(maxs[f], n);
+        }
+        return new PdxCatalogEntry(path, lastModified, length, header.getNumRecords(), header.getFileVersionID(),
+                header.getDosCodePage(), names, types, sizes, Arrays.copyOf(blocks, n),
+                Arrays.copyOf(blockRecords, n), mins, maxs);
+    }
+
+    static PdxCatalogEntry read(DataInputStream in) throws IOException {
+        String path = in.readUTF();
+        long lastModified = in.readLong();
+        long length = in.readLong();
+        int numRecords = in.readInt();
+        int fileVersionID = in.readUnsignedByte();
+        int dosCodePage = in.readUnsignedShort();
+        int numFields = in.readUnsignedShort();
+        String[] names = new String[numFields + 1];
+        int[] types = new int[numFields + 1];
+        int[] sizes = new int[numFields + 1];
+        for (int f = 1; f <= numFields; f++) {
+            names[f] = in.readBoolean() ? in.readUTF() : null;
+            types[f] = in.readUnsignedByte();
+            sizes[f] = in.readUnsignedByte();
+        }
+        int numBlocks = in.readInt();
+        int[] blocks = new int[numBlocks];
+        int[] blockRecords = new int[numBlocks];
+        for (int b = 0; b < numBlocks; b++) {
+            blocks[b] = in.readUnsignedShort();
+            blockRecords[b] = in.readUnsignedShort();
+        }
+        double[][] mins = new double[numFields + 1][];
+        double[][] maxs = new double[numFields + 1][];
+        for (int f = 1; f <= numFields; f++) {
+            if (!PdxFieldCodec.isNumeric(types[f])) continue;
+            mins[f] = new double[numBlocks];
+            maxs[f] = new double[numBlocks];
+            for (int b = 0; b < numBlocks; b++) {
+                mins[f][b] = in.readDouble();
+                maxs[f][b] = in.readDouble();
+            }
+        }
+        return new PdxCatalogEntry(path, lastModified, length, numRecords, fileVersionID, dosCodePage,
+                names, types, sizes, blocks, blockRecords, mins, maxs);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeUTF(path);
+        out.writeLong(lastModified);
+        out.writeLong(length);
+        out.writeInt(numRecords);
+        out.writeByte(fileVersionID);
+        out.writeShort(dosCodePage);
+        out.writeShort(names.length - 1);
+        for (int f = 1; f < names.length; f++) {
+            out.writeBoolean(names[f] != null);
+            if (names[f] != null) out.writeUTF(names[f]);
+            out.writeByte(types[f]);
+            out.writeByte(sizes[f]);
+        }
+        out.writeInt(blocks.length);
+        for (int b = 0; b < blocks.length; b++) {
+            out.writeShort(blocks[b]);
+            out.writeShort(blockRecords[b]);
+        }
+        for (int f = 1; f < names.length; f++) {
+            if (mins[f] == null) continue;
+            for (int b = 0; b < blocks.length; b++) {
+                out.writeDouble(mins[f][b]);
+                out.writeDouble(maxs[f][b]);
+            }
+        }
+    }
+
+    /**
+     * Canonical path of the table.
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public int getFileVersionID() {
+        return fileVersionID;
+    }
+
+    public int getDosCodePage() {
+        return dosCodePage;
+    }
+
+    public int getNumFields() {
+        return names.length - 1;
+    }
+
+    /**
+     * @param field field number, the first field is 1
+     */
+    public String getFieldName(int field) {
+        return names[field];
+    }
+
+    public int getFieldType(int field) {
+        return types[field];
+    }
+
+    public int getFieldSize(int field) {
+        return sizes[field];
+    }
+
+    /**
+     * Field number by name, ignoring case.
+     *
+     * @return the field number, 0 if there is no such field
+     */
+    public int getFieldNumber(String name) {
+        for (int f = 1; f < names.length; f++) {
+            if (name.equalsIgnoreCase(names[f])) return f;
+        }
+        return 0;
+    }
+
+    /**
+     * Number of blocks in the chain.
+     */
+    public int getNumBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * Block number at a position in the chain.
+     *
+     * @param index position, the first block in the chain is 0
+     */
+    public int getBlock(int index) {
+        return blocks[index];
+    }
+
+    public int getBlockRecords(int index) {
+        return blockRecords[index];
+    }
+
+    /**
+     * Smallest value of a numeric field in a block.
+     *
+     * @return the value, NaN if the field is not numeric or blank throughout the block
+     */
+    public double getMin(int field, int index) {
+        return mins[field] != null ? mins[field][index] : Double.NaN;
+    }
+
+    /**
+     * Largest value of a numeric field in a block.
+     *
+     * @return the value, NaN if the field is not numeric or blank throughout the block
+     */
+    public double getMax(int field, int index) {
+        return maxs[field] != null ? maxs[field][index] : Double.NaN;
+    }
+
+    /**
+     * May a numeric field hold a value in a range?
+     *
+     * @param field field number
+     * @param from  lowest value, inclusive
+     * @param to    highest value, inclusive
+     * @return true if the range of some block overlaps
+     */
+    public boolean mayContain(int field, double from, double to) {
+        if (mins[field] == null) return false;
+        for (int b = 0; b < blocks.length; b++) {
+            if (mins[field][b] <= to && maxs[field][b] >= from) return true;
+        }
+        return false;
+    }
+
+    public String toString() {
+        return path + " (" + numRecords + " records, " + getNumFields() + " fields, " + blocks.length + " blocks)";
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * PdxChangeListener.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * Receives the rows that differ between a PdxSnapshot and the table as it
+ * is now. Rows are indexed from 1 to numFields like PdxRecordDecoder rows.
+ *
+ * @author Robin van Emden
+ */
+public interface PdxChangeListener {
+    /**
+     * A record that was not in the snapshot.
+     */
+    void inserted(String[] row);
+
+    /**
+     * A record whose primary key was in the snapshot with other values;
+     * only reported for keyed tables.
+     */
+    void updated(String[] row);
+
+    /**
+     * A record that is gone. For keyed tables only the primary key fields
+     * are filled in, the others are null; for tables without a key the
+     * whole record is.
+     */
+    void deleted(String[] row);
+}
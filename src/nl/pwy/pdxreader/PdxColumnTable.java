@@ -0,0 +1,292 @@
+/*
+ * PdxColumnTable.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * A table loaded into off-heap columns. Every field is a column of fixed
+ * width values, stored as in the file, in chunks of CHUNK_ROWS rows
+ * allocated from a PdxArena. Numbers are read straight from the column,
+ * Strings are formatted on request like PdxReader.getData().
+ * <p>
+ * With a caller's arena the memory is released when that arena is
+ * closed; load(PdxFile) gives the table its own arena, released by
+ * close(). Reading a table after its arena is closed throws
+ * IllegalStateException; closing waits for reads in progress on other
+ * threads. Every getter holds the arena open for one value; scan() holds
+ * it once for a whole column. getString() is not thread-safe, the other
+ * getters are.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxColumnTable implements Closeable {
+    /**
+     * Rows per column chunk.
+     */
+    public static final int CHUNK_ROWS = 1 << 20;
+
+    private final PdxHeader header;
+    private final PdxArena arena;
+    private final boolean ownArena;
+    private final ByteBuffer[][] columns;
+    private final long numRows;
+    private final PdxRecordDecoder decoder;
+    private final byte[] scratch = new byte[255];
+
+    private PdxColumnTable(PdxHeader header, PdxArena arena, boolean ownArena, ByteBuffer[][] columns, long numRows) {
+        this.header = header;
+        this.arena = arena;
+        this.ownArena = ownArena;
+        this.columns = columns;
+        this.numRows = numRows;
+        this.decoder = new PdxRecordDecoder(header);
+    }
+
+    /**
+     * Loads the records in the chain into columns in its own arena.
+     *
+     * @param file table to load
+     * @return the table, close it to release the memory
+     * @throws IOException
+     */
+    public static PdxColumnTable load(PdxFile file) throws IOException {
+        PdxArena arena = new PdxArena();
+        try {
+            return load(file, arena, true);
+        } catch (IOException e) {
+            arena.close();
+            throw e;
+        } catch (RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Loads the records in the chain into columns allocated from an arena.
+     *
+     * @param file  table to load
+     * @param arena owner of the memory, closing it releases the table
+     * @return the table
+     * @throws IOException
+     */
+    public static PdxColumnTable load(PdxFile file, PdxArena arena) throws IOException {
+        return load(file, arena, false);
+    }
+
+    private static PdxColumnTable load(PdxFile file, PdxArena arena, boolean ownArena) throws IOException {
+        PdxHeader header = file.getHeader();
+        int numFields = header.getNumFields();
+        PdxBlockDirectory directory = file.blockDirectory();
+        long rows = directory.getNumRecords();
+        int numChunks = (int) ((rows + CHUNK_ROWS - 1) / CHUNK_ROWS);
+        ByteBuffer[][] columns = new ByteBuffer[numFields + 1][numChunks];
+        for (int c = 0; c < numChunks; c++) {
+            int chunkRows = (int) Math.min(CHUNK_ROWS, rows - (long) c * CHUNK_ROWS);
+            for (int f = 1; f <= numFields; f++) {
+                columns[f][c] = arena.allocate(chunkRows * header.getFieldWidth(f));
+            }
+        }
+        ByteBuffer[] writers = new ByteBuffer[numFields + 1];
+        long row = 0;
+        if (!arena.acquire()) throw new IllegalStateException("Arena is closed");
+        try {
+            for (int d = 0; d < directory.getNumBlocks(); d++) {
+                PdxBlock block = file.readBlock(directory.getBlock(d));
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords() && row < rows; i++, row++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if ((row & (CHUNK_ROWS - 1)) == 0) {
+                        for (int f = 1; f <= numFields; f++) {
+                            writers[f] = columns[f][(int) (row / CHUNK_ROWS)].duplicate();
+                        }
+                    }
+                    for (int f = 1; f <= numFields; f++) {
+                        writers[f].put(data, recordOffset + header.getFieldOffset(f), header.getFieldWidth(f));
+                    }
+                }
+            }
+        } finally {
+            arena.release();
+        }
+        return new PdxColumnTable(header, arena, ownArena, columns, row);
+    }
+
+    public PdxHeader getHeader() {
+        return header;
+    }
+
+    public long getNumRows() {
+        return numRows;
+    }
+
+    /**
+     * Bytes held off-heap by the arena of this table.
+     */
+    public long getOffHeapBytes() {
+        return arena.getAllocated();
+    }
+
+    /**
+     * Keeps the arena from closing until release(); every getter holds it
+     * while it touches a chunk.
+     */
+    private void acquire() {
+        if (!arena.acquire()) throw new IllegalStateException("Table memory is released");
+    }
+
+    /**
+     * Index of a value in its chunk; checks the arguments.
+     */
+    private int index(int field, long row) {
+        if (row < 0 || row >= numRows) throw new IndexOutOfBoundsException("Row " + row);
+        if (field < 1 || field >= columns.length) throw new IllegalArgumentException("No field " + field);
+        return (int) (row & (CHUNK_ROWS - 1)) * header.getFieldWidth(field);
+    }
+
+    private ByteBuffer chunk(int field, long row) {
+        return columns[field][(int) (row / CHUNK_ROWS)];
+    }
+
+    /**
+     * Is the value blank?
+     *
+     * @param field field number, the first field is 1
+     * @param row   row number, the first row is 0
+     */
+    public boolean isNull(int field, long row) {
+        acquire();
+        try {
+            int index = index(field, row);
+            ByteBuffer chunk = chunk(field, row);
+            for (int i = index; i < index + header.getFieldWidth(field); i++) {
+                if (chunk.get(i) != 0) return false;
+            }
+            return true;
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * Numeric value; dates give the stored day number, times milliseconds.
+     *
+     * @param field field number, the first field is 1
+     * @param row   row number, the first row is 0
+     * @return the value, NaN when blank
+     */
+    public double getNumber(int field, long row) {
+        acquire();
+        try {
+            int index = index(field, row);
+            return number(field, header.getFieldType(field), chunk(field, row), index);
+        } finally {
+            arena.release();
+        }
+    }
+
+    /**
+     * Hands the numeric values of a field to a consumer in row order, NaN
+     * for blanks. The arena is held open once for the whole scan instead
+     * of once per value, which makes this the fast way to read a column;
+     * the consumer must not close the table.
+     *
+     * @param field    field number, the first field is 1
+     * @param consumer receives the values as getNumber() gives them
+     */
+    public void scan(int field, DoubleConsumer consumer) {
+        if (field < 1 || field >= columns.length) throw new IllegalArgumentException("No field " + field);
+        int type = header.getFieldType(field);
+        if (!PdxFieldCodec.isNumeric(type)) {
+            throw new IllegalArgumentException("Field " + field + " is not numeric");
+        }
+        int width = header.getFieldWidth(field);
+        acquire();
+        try {
+            long row = 0;
+            for (ByteBuffer chunk : columns[field]) {
+                int rows = (int) Math.min(CHUNK_ROWS, numRows - row);
+                for (int i = 0; i < rows; i++) {
+                    consumer.accept(number(field, type, chunk, i * width));
+                }
+                row += rows;
+            }
+        } finally {
+            arena.release();
+        }
+    }
+
+    private static double number(int field, int type, ByteBuffer chunk, int index) {
+        switch (type) {
+            case PdxReader.pxfShort: {
+                short raw = chunk.getShort(index);
+                return raw == 0 ? Double.NaN : (short) (raw ^ 0x8000);
+            }
+            case PdxReader.pxfDate:
+            case PdxReader.pxfLong:
+            case PdxReader.pxfTime:
+            case PdxReader.pxfAutoInc: {
+                int raw = chunk.getInt(index);
+                return raw == 0 ? Double.NaN : raw ^ 0x80000000;
+            }
+            case PdxReader.pxfTimestamp: {
+                long raw = chunk.getLong(index);
+                return raw == 0 ? Double.NaN : raw ^ 0x8000000000000000L;
+            }
+            case PdxReader.pxfCurrency:
+            case PdxReader.pxfNumber: {
+                long raw = chunk.getLong(index);
+                return raw == 0 ? Double.NaN : Double.longBitsToDouble(raw ^ 0x8000000000000000L);
+            }
+            default:
+                throw new IllegalArgumentException("Field " + field + " is not numeric");
+        }
+    }
+
+    /**
+     * Value formatted like PdxReader.getData().
+     *
+     * @param field field number, the first field is 1
+     * @param row   row number, the first row is 0
+     */
+    public String getString(int field, long row) {
+        acquire();
+        try {
+            int index = index(field, row);
+            ByteBuffer chunk = chunk(field, row);
+            int width = header.getFieldWidth(field);
+            for (int i = 0; i < width; i++) {
+                scratch[i] = chunk.get(index + i);
+            }
+        } finally {
+            arena.release();
+        }
+        return decoder.format(field, scratch, 0);
+    }
+
+    /**
+     * Releases the memory when the table has its own arena; a caller's
+     * arena is left to the caller.
+     */
+    public void close() {
+        if (ownArena) arena.close();
+    }
+}
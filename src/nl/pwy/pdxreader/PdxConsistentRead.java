@@ -0,0 +1,213 @@
+/*
+ * PdxConsistentRead.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads a table that its application may be writing, without locks and
+ * without copying the file first. The change counters, record count and
+ * chain ends are taken from the start of the header with one small read
+ * before and after every block; a block read while they moved is read
+ * again. Rows are delivered as their block is read; of every block only
+ * its 6 byte header, the counters it was read under and a CRC of the
+ * delivered records are kept.
+ * <p>
+ * When the counters moved during a pass, the chain is walked again by
+ * block headers. A block is only read again when its header changed or
+ * it was read before the counters last moved; records appended to it and
+ * blocks new in the chain are delivered. If delivered records changed or
+ * disappeared the rows can no longer be a snapshot and the read stops.
+ * This repeats until the counters hold still over a pass or the retries
+ * run out.
+ * <p>
+ * isConsistent() tells if the rows are a snapshot of one state of the
+ * table.
+ *
+ * @author Robin van Emden
+ */
+public class PdxConsistentRead {
+    // indexes into stamp()
+    private static final int FILE_BLOCKS = 4;
+    private static final int FIRST_BLOCK = 5;
+
+    private final PdxFile file;
+    private final PdxHeader header;
+    private final byte[] head;
+    private int maxRetries = 3;
+    private boolean consistent;
+    private int blocksRead;
+    private int blocksRetried;
+    private int passes;
+    private int[] current;
+
+    /**
+     * Constructor
+     *
+     * @param file table to read
+     */
+    public PdxConsistentRead(PdxFile file) {
+        this.file = file;
+        this.header = file.getHeader();
+        // changeCount4 at 0x70 only exists from version 5
+        this.head = new byte[header.getFileVersionID() > 4 ? 0x72 : 0x2f];
+    }
+
+    /**
+     * Number of times a block, or the chain, is read again before giving
+     * up on a consistent result; 3 by default.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Reads the table and delivers its rows.
+     *
+     * @param consumer receives rows indexed from 1 like PdxRecordDecoder rows
+     * @return true if the rows are a consistent snapshot
+     * @throws IOException
+     */
+    public boolean run(Consumer<String[]> consumer) throws IOException {
+        consistent = false;
+        blocksRead = 0;
+        blocksRetried = 0;
+        passes = 0;
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        Map<Integer, PdxBlock> heads = new HashMap<Integer, PdxBlock>();
+        Map<Integer, int[]> stamps = new HashMap<Integer, int[]>();
+        Map<Integer, Long> crcs = new HashMap<Integer, Long>();
+        current = stamp();
+        for (int pass = 0; pass <= maxRetries; pass++) {
+            passes++;
+            int[] start = current;
+            int fileBlocks = start[FILE_BLOCKS];
+            boolean[] visited = new boolean[fileBlocks + 1];
+            int b = start[FIRST_BLOCK];
+            while (b > 0 && b <= fileBlocks && !visited[b]) {
+                visited[b] = true;
+                PdxBlock known = heads.get(b);
+                if (known != null) {
+                    PdxBlock now = file.readBlockHeader(b);
+                    if (Arrays.equals(known.getData(), now.getData()) && Arrays.equals(stamps.get(b), start)) {
+                        b = now.getNextBlock();
+                        continue;
+                    }
+                }
+                PdxBlock block = readBlock(b);
+                int from = 0;
+                if (known != null) {
+                    from = known.getNumRecords();
+                    if (block.getNumRecords() < from || crc(block, from) != crcs.get(b)) {
+                        // the consumer has rows that are no longer in the table
+                        return false;
+                    }
+                    blocksRetried++;
+                }
+                for (int i = from; i < block.getNumRecords(); i++) {
+                    consumer.accept(decoder.decode(block.getData(), block.getRecordOffset(i)));
+                }
+                heads.put(b, new PdxBlock(header, b, Arrays.copyOf(block.getData(), PdxHeader.BLOCK_HEADER_SIZE)));
+                stamps.put(b, current);
+                crcs.put(b, crc(block, block.getNumRecords()));
+                b = block.getNextBlock();
+            }
+            for (int delivered : heads.keySet()) {
+                if (delivered > fileBlocks || !visited[delivered]) return false;
+            }
+            current = stamp();
+            if (Arrays.equals(start, current)) {
+                consistent = true;
+                break;
+            }
+        }
+        return consistent;
+    }
+
+    /**
+     * Reads a block until the counters stay the same over the read.
+     */
+    private PdxBlock readBlock(int blockNumber) throws IOException {
+        int[] before = current;
+        PdxBlock block = file.readBlock(blockNumber);
+        blocksRead++;
+        int[] after = stamp();
+        for (int retry = 0; retry < maxRetries && !Arrays.equals(before, after); retry++) {
+            before = after;
+            block = file.readBlock(blockNumber);
+            blocksRead++;
+            blocksRetried++;
+            after = stamp();
+        }
+        current = after;
+        return block;
+    }
+
+    /**
+     * What the application changes in the header when it writes, read at
+     * the fixed offsets of the fields.
+     */
+    private int[] stamp() throws IOException {
+        file.readHeaderBytes(head);
+        return new int[]{PdxBytes.u8(head, 0x2d), PdxBytes.u8(head, 0x2e),
+                head.length > 0x70 ? PdxBytes.u16le(head, 0x70) : 0, PdxBytes.s32le(head, 0x06),
+                PdxBytes.u16le(head, 0x0c), PdxBytes.u16le(head, 0x0e), PdxBytes.u16le(head, 0x10)};
+    }
+
+    /**
+     * CRC of the first records of a block.
+     */
+    private long crc(PdxBlock block, int records) {
+        CRC32 crc = new CRC32();
+        crc.update(block.getData(), block.getRecordOffset(0), records * header.getRecordSize());
+        return crc.getValue();
+    }
+
+    /**
+     * Were the delivered rows a consistent snapshot?
+     */
+    public boolean isConsistent() {
+        return consistent;
+    }
+
+    /**
+     * Number of block reads, retries included.
+     */
+    public int getBlocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * Number of blocks read again because the counters moved while or
+     * after they were read.
+     */
+    public int getBlocksRetried() {
+        return blocksRetried;
+    }
+
+    /**
+     * Number of passes over the chain.
+     */
+    public int getPasses() {
+        return passes;
+    }
+}
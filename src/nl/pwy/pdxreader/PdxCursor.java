@@ -0,0 +1,138 @@
+/*
+ * PdxCursor.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Position in a PdxTable. A cursor has its own views of the mapping, its
+ * own record buffer and its own decoder, so cursors on the same table do
+ * not share any mutable state. A single cursor is not thread-safe.
+ * <pre>
+ * PdxCursor cursor = table.cursor();
+ * while (cursor.next()) {
+ *     String code = cursor.getString(1);
+ * }
+ * </pre>
+ *
+ * @author Robin van Emden
+ */
+public final class PdxCursor {
+    private final PdxTable table;
+    private final PdxHeader header;
+    private final ByteBuffer[] views;
+    private final PdxRecordDecoder decoder;
+    private final byte[] record;
+    private long row = -1;
+    private int index = -1;
+
+    PdxCursor(PdxTable table) {
+        this.table = table;
+        this.header = table.getHeader();
+        this.views = table.views();
+        this.decoder = new PdxRecordDecoder(header);
+        this.record = new byte[header.getRecordSize()];
+    }
+
+    /**
+     * Moves to the next row.
+     *
+     * @return false after the last row
+     */
+    public boolean next() {
+        return seek(row + 1);
+    }
+
+    /**
+     * Moves to a row.
+     *
+     * @param row row number, the first row is 0
+     * @return false if there is no such row; the cursor is then after the last row
+     */
+    public boolean seek(long row) {
+        if (row >= table.getNumRecords() || row < 0) {
+            this.row = table.getNumRecords();
+            this.index = -1;
+            return false;
+        }
+        if (index < 0 || row < table.getFirstRow(index) || row >= table.getFirstRow(index + 1)) {
+            index = table.indexOf(row);
+        }
+        this.row = row;
+        int inBlock = (int) (row - table.getFirstRow(index));
+        table.read(views, table.getBlock(index),
+                PdxHeader.BLOCK_HEADER_SIZE + inBlock * header.getRecordSize(), record);
+        return true;
+    }
+
+    /**
+     * Current row number, the first row is 0.
+     */
+    public long getRow() {
+        return row;
+    }
+
+    private void check() {
+        if (index < 0) throw new IllegalStateException("Cursor is not on a row");
+    }
+
+    /**
+     * Is the field blank in the current row?
+     *
+     * @param field field number, the first field is 1
+     */
+    public boolean isNull(int field) {
+        check();
+        return PdxFieldCodec.isNull(record, header.getFieldOffset(field), header.getFieldWidth(field));
+    }
+
+    /**
+     * Field of the current row, formatted like PdxReader.getData().
+     *
+     * @param field field number, the first field is 1
+     */
+    public String getString(int field) {
+        check();
+        return decoder.decodeField(field, record, 0);
+    }
+
+    /**
+     * Numeric field of the current row; dates give the stored day number,
+     * times milliseconds.
+     *
+     * @param field field number, the first field is 1
+     * @return the value, NaN when blank
+     */
+    public double getNumber(int field) {
+        check();
+        int type = header.getFieldType(field);
+        if (!PdxFieldCodec.isNumeric(type)) {
+            throw new IllegalArgumentException("Field " + field + " is not numeric");
+        }
+        return PdxFieldCodec.decodeNumber(type, record, header.getFieldOffset(field));
+    }
+
+    /**
+     * All fields of the current row.
+     *
+     * @return row indexed from 1 to numFields
+     */
+    public String[] getValues() {
+        check();
+        return decoder.decode(record, 0);
+    }
+}
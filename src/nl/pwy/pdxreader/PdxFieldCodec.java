@@ -0,0 +1,131 @@
+/*
+ * PdxFieldCodec.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * Decodes field values straight from record bytes. Numeric fields are
+ * stored hi-byte to low-byte with the first byte's high bit flipped, so
+ * a blank value is all zeroes: the raw value is tested for zero, and the
+ * sign bit flipped to get the value.
+ *
+ * @author Robin van Emden
+ */
+final class PdxFieldCodec {
+
+    private PdxFieldCodec() {
+    }
+
+    /**
+     * Big endian 16 bits as stored, sign bit not flipped.
+     */
+    static int rawShort(byte[] b, int off) {
+        return PdxBytes.u16be(b, off);
+    }
+
+    /**
+     * Big endian 32 bits as stored, sign bit not flipped.
+     */
+    static int rawInt(byte[] b, int off) {
+        return PdxBytes.s32be(b, off);
+    }
+
+    /**
+     * Big endian 64 bits as stored, sign bit not flipped.
+     */
+    static long rawLong(byte[] b, int off) {
+        return PdxBytes.s64be(b, off);
+    }
+
+    static short decodeShort(byte[] b, int off) {
+        return (short) (rawShort(b, off) ^ 0x8000);
+    }
+
+    static int decodeInt(byte[] b, int off) {
+        return rawInt(b, off) ^ 0x80000000;
+    }
+
+    static long decodeLong(byte[] b, int off) {
+        return rawLong(b, off) ^ 0x8000000000000000L;
+    }
+
+    static double decodeDouble(byte[] b, int off) {
+        return Double.longBitsToDouble(decodeLong(b, off));
+    }
+
+    /**
+     * Is the field blank, i.e. all zeroes?
+     */
+    static boolean isNull(byte[] b, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (b[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Can fields of this type be read as a number?
+     */
+    static boolean isNumeric(int type) {
+        switch (type) {
+            case PdxReader.pxfDate:
+            case PdxReader.pxfShort:
+            case PdxReader.pxfLong:
+            case PdxReader.pxfCurrency:
+            case PdxReader.pxfNumber:
+            case PdxReader.pxfTime:
+            case PdxReader.pxfTimestamp:
+            case PdxReader.pxfAutoInc:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Reads a numeric field as a double. Dates give the stored day
+     * number, times milliseconds since midnight.
+     *
+     * @param type field type, see isNumeric
+     * @return the value, NaN for a blank field
+     */
+    static double decodeNumber(int type, byte[] b, int off) {
+        switch (type) {
+            case PdxReader.pxfShort: {
+                int raw = rawShort(b, off);
+                return raw == 0 ? Double.NaN : (short) (raw ^ 0x8000);
+            }
+            case PdxReader.pxfDate:
+            case PdxReader.pxfLong:
+            case PdxReader.pxfTime:
+            case PdxReader.pxfAutoInc: {
+                int raw = rawInt(b, off);
+                return raw == 0 ? Double.NaN : raw ^ 0x80000000;
+            }
+            case PdxReader.pxfTimestamp: {
+                long raw = rawLong(b, off);
+                return raw == 0 ? Double.NaN : raw ^ 0x8000000000000000L;
+            }
+            case PdxReader.pxfCurrency:
+            case PdxReader.pxfNumber: {
+                long raw = rawLong(b, off);
+                return raw == 0 ? Double.NaN : Double.longBitsToDouble(raw ^ 0x8000000000000000L);
+            }
+            default:
+                throw new IllegalArgumentException("Field type " + type + " is not numeric");
+        }
+    }
+}
@@ -0,0 +1,396 @@
+/*
+ * PdxFile.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Random access to the header and datablocks of a PDX file, without
+ * loading the file into memory. Blocks are read with positional reads,
+ * so one PdxFile may be shared by several threads.
+ *
+ * @author Robin van Emden
+ */
+public class PdxFile implements Closeable {
+    private final File file;
+    private final FileChannel channel;
+    private final PdxHeader header;
+
+    /**
+     * Constructor, needs Paradox DB filename
+     *
+     * @param filename resolved against user.dir first, like PdxReader
+     * @throws IOException if the file can not be opened or has no valid header
+     */
+    public PdxFile(String filename) throws IOException {
+        this(resolve(filename));
+    }
+
+    /**
+     * Constructor, needs Paradox DB file
+     *
+     * @param file
+     * @throws IOException if the file can not be opened or has no valid header
+     */
+    public PdxFile(File file) throws IOException {
+        this.file = file;
+        this.channel = new FileInputStream(file).getChannel();
+        try {
+            this.header = readHeader(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Finds a PDX file relative to user.dir, or else as given.
+     *
+     * @param filename
+     * @return the file
+     */
+    static File resolve(String filename) {
+        File file = new File(System.getProperty("user.dir") + File.separator + filename);
+        if (!file.exists()) {
+            file = new File(filename);
+        }
+        return file;
+    }
+
+    /**
+     * Reads and parses the header at the start of a channel.
+     *
+     * @param channel
+     * @return the parsed header
+     * @throws IOException
+     */
+    static PdxHeader readHeader(FileChannel channel) throws IOException {
+        byte[] fixed = new byte[4];
+        readFully(channel, ByteBuffer.wrap(fixed), 0);
+        int headerSize = PdxBytes.u16le(fixed, 2);
+        if (headerSize < PdxHeader.FIXED_SIZE) {
+            throw new IOException("Invalid headerSize " + headerSize);
+        }
+        byte[] data = new byte[headerSize];
+        readFully(channel, ByteBuffer.wrap(data), 0);
+        return PdxHeader.parse(data);
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer dst, long position) throws IOException {
+        while (dst.hasRemaining()) {
+            int n = channel.read(dst, position);
+            if (n < 0) throw new EOFException("Unexpected end of file at " + position);
+            position += n;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PdxHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads the header again, as the file holds it now. getHeader() keeps
+     * the header read when the file was opened; block size and layout do
+     * not change, record counts, blocks and change counters may.
+     *
+     * @return the current header
+     * @throws IOException
+     */
+    public PdxHeader readCurrentHeader() throws IOException {
+        return readHeader(channel);
+    }
+
+    /**
+     * Reads the start of the header as the file holds it now, without
+     * parsing it, for callers that only need a few fields at fixed offsets.
+     *
+     * @param dst filled from offset 0
+     * @throws IOException
+     */
+    void readHeaderBytes(byte[] dst) throws IOException {
+        readFully(channel, ByteBuffer.wrap(dst), 0);
+    }
+
+    /**
+     * Current length of the file.
+     *
+     * @throws IOException
+     */
+    public long length() throws IOException {
+        return channel.size();
+    }
+
+    /**
+     * Reads only the 6 byte header of a datablock.
+     *
+     * @param blockNumber block number, the first block is 1
+     * @return block without data
+     * @throws IOException
+     */
+    public PdxBlock readBlockHeader(int blockNumber) throws IOException {
+        byte[] data = new byte[PdxHeader.BLOCK_HEADER_SIZE];
+        readFully(channel, ByteBuffer.wrap(data), header.getBlockOffset(blockNumber));
+        return new PdxBlock(header, blockNumber, data);
+    }
+
+    /**
+     * Reads a complete datablock.
+     *
+     * @param blockNumber block number, the first block is 1
+     * @return block with data
+     * @throws IOException
+     */
+    public PdxBlock readBlock(int blockNumber) throws IOException {
+        byte[] data = new byte[header.getBlockSize()];
+        readFully(channel, ByteBuffer.wrap(data), header.getBlockOffset(blockNumber));
+        return new PdxBlock(header, blockNumber, data);
+    }
+
+    /**
+     * Iterates the blocks in the chain from firstBlock.
+     *
+     * @param prefetch read the next block in the background
+     * @return block iterator, close it when not iterated to the end
+     */
+    public PdxBlockChain blockChain(boolean prefetch) {
+        return new PdxBlockChain(this, prefetch);
+    }
+
+    /**
+     * Indexes the record counts of the blocks in the chain, for reading
+     * pages of rows.
+     *
+     * @return directory built from the block headers
+     * @throws IOException
+     */
+    public PdxBlockDirectory blockDirectory() throws IOException {
+        return new PdxBlockDirectory(this);
+    }
+
+    /**
+     * Iterates the blocks in the chain with asynchronous reads, up to depth
+     * reads in flight. The chain is followed from the blocks read, with
+     * the blocks physically after the next one read speculatively.
+     *
+     * @param depth number of reads kept in flight
+     * @return block iterator, close it when done
+     * @throws IOException
+     */
+    public PdxAsyncBlockReader asyncBlockReader(int depth) throws IOException {
+        return new PdxAsyncBlockReader(this, null, depth, depth * 2);
+    }
+
+    /**
+     * Stream of the records in the chain, rows indexed from 1 like
+     * PdxRecordDecoder rows. parallel() splits it on block boundaries, see
+     * PdxSpliterator.
+     *
+     * @return sequential stream
+     * @throws IOException if the block headers can not be read
+     */
+    public Stream<String[]> stream() throws IOException {
+        return StreamSupport.stream(new PdxSpliterator(this), false);
+    }
+
+    /**
+     * Block numbers in chain order, found by reading only block headers.
+     *
+     * @return the blocks from firstBlock to the end of the chain
+     * @throws IOException
+     */
+    public int[] chainBlocks() throws IOException {
+        int fileBlocks = header.getFileBlocks();
+        int[] blocks = new int[fileBlocks];
+        boolean[] visited = new boolean[fileBlocks + 1];
+        int n = 0;
+        int block = header.getFirstBlock();
+        while (block > 0 && block <= fileBlocks && !visited[block]) {
+            visited[block] = true;
+            blocks[n++] = block;
+            block = readBlockHeader(block).getNextBlock();
+        }
+        return Arrays.copyOf(blocks, n);
+    }
+
+    /**
+     * Computes count, sum, minimum, maximum and average of a numeric,
+     * currency, date, time or autoincrement field. Values are read from
+     * the block bytes at a stride of recordSize; no cell is decoded to a
+     * String. When the table has no zone map sidecar built from its current
+     * state, the scan leaves one for the field (see PdxZoneMap).
+     *
+     * @param field field number, the first field is 1
+     * @return the aggregate over all records in the block chain
+     * @throws IOException
+     */
+    public PdxAggregate aggregate(int field) throws IOException {
+        int type = fieldType(field);
+        if (!PdxFieldCodec.isNumeric(type)) {
+            throw new IllegalArgumentException("Field " + field + " is not numeric");
+        }
+        PdxAggregate aggregate = new PdxAggregate();
+        int off = PdxHeader.BLOCK_HEADER_SIZE + header.getFieldOffset(field);
+        PdxZoneMap.Builder zones = PdxZoneMap.isCurrent(this) ? null : new PdxZoneMap.Builder(this, field);
+        PdxBlockChain chain = blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                aggregate.accumulate(type, block.getData(), off, block.getNumRecords(), header.getRecordSize());
+                if (zones != null) zones.add(block);
+            }
+            if (zones != null) zones.save();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        return aggregate;
+    }
+
+    /**
+     * Type of a field, checking the field number.
+     */
+    int fieldType(int field) {
+        if (field < 1 || field > header.getNumFields()) {
+            throw new IllegalArgumentException("No field " + field + " in " + file);
+        }
+        return header.getFieldType(field);
+    }
+
+    /**
+     * Checks the structure of the file without decoding any field: the
+     * file length against headerSize, fileBlocks and the block size, the
+     * block chain from firstBlock to lastBlock and the record count of
+     * the chain against numRecords. Only the block headers of the blocks
+     * in the chain are read.
+     *
+     * @return report listing the problems found
+     * @throws IOException if the file can not be read
+     */
+    public PdxValidationReport validate() throws IOException {
+        PdxValidationReport report = new PdxValidationReport(file.getPath());
+        int recordSize = header.getRecordSize();
+        int maxTableSize = header.getMaxTableSize();
+        int fileBlocks = header.getFileBlocks();
+        if (recordSize <= 0) {
+            report.problem("recordSize " + recordSize + " is not positive");
+        }
+        if (maxTableSize < 1 || maxTableSize > 32) {
+            report.problem("maxTableSize " + maxTableSize + " is out of range 1..32");
+        }
+        if (header.getNumRecords() < 0) {
+            report.problem("numRecords " + header.getNumRecords() + " is negative");
+        }
+        if (!report.isValid()) {
+            return report;
+        }
+        int width = 0;
+        for (int i = 1; i <= header.getNumFields(); i++) {
+            width += header.getFieldWidth(i);
+        }
+        if (!header.isIndexFile() && width != recordSize) {
+            report.problem("field sizes add up to " + width + ", recordSize is " + recordSize);
+        }
+
+        long expected = header.getHeaderSize() + (long) fileBlocks * header.getBlockSize();
+        long length = length();
+        if (length < expected) {
+            report.problem("file length " + length + " is shorter than headerSize + fileBlocks * blockSize = " + expected);
+        } else if (length > expected) {
+            report.problem("file length " + length + " exceeds headerSize + fileBlocks * blockSize = " + expected);
+        }
+        if (header.getNextBlock() > fileBlocks) {
+            report.problem("nextBlock " + header.getNextBlock() + " exceeds fileBlocks " + fileBlocks);
+        }
+        int availableBlocks = (int) Math.min(fileBlocks, (length - header.getHeaderSize()) / header.getBlockSize());
+
+        int firstBlock = header.getFirstBlock();
+        int lastBlock = header.getLastBlock();
+        if (firstBlock == 0) {
+            if (header.getNumRecords() != 0) {
+                report.problem("firstBlock is 0 but numRecords is " + header.getNumRecords());
+            }
+            report.setChain(0, 0);
+            return report;
+        }
+        if (firstBlock > fileBlocks) {
+            report.problem("firstBlock " + firstBlock + " exceeds fileBlocks " + fileBlocks);
+        }
+        if (lastBlock < 1 || lastBlock > fileBlocks) {
+            report.problem("lastBlock " + lastBlock + " is out of range 1.." + fileBlocks);
+        }
+
+        boolean[] visited = new boolean[fileBlocks + 1];
+        int capacity = header.getRecordsPerBlock();
+        int blocks = 0;
+        long records = 0;
+        int previous = 0;
+        int block = firstBlock;
+        while (block != 0) {
+            if (block > availableBlocks) {
+                report.problem("block " + block + " in chain is beyond the end of the file");
+                break;
+            }
+            if (visited[block]) {
+                report.problem("block chain loops back to block " + block);
+                break;
+            }
+            visited[block] = true;
+            PdxBlock b = readBlockHeader(block);
+            blocks++;
+            if (b.getPrevBlock() != previous) {
+                report.problem("block " + block + " has prevBlock " + b.getPrevBlock() + ", expected " + previous);
+            }
+            int addDataSize = b.getAddDataSize();
+            if (addDataSize >= 0 && addDataSize % recordSize != 0) {
+                report.problem("block " + block + " has addDataSize " + addDataSize + ", not a multiple of recordSize");
+            }
+            if (addDataSize >= 0 && (addDataSize / recordSize) + 1 > capacity) {
+                report.problem("block " + block + " holds " + ((addDataSize / recordSize) + 1) + " records, capacity is " + capacity);
+            }
+            records += b.getNumRecords();
+            previous = block;
+            block = b.getNextBlock();
+        }
+        if (previous != lastBlock) {
+            report.problem("block chain ends at block " + previous + ", lastBlock is " + lastBlock);
+        }
+        if (records != header.getNumRecords()) {
+            report.problem("blocks in chain hold " + records + " records, numRecords is " + header.getNumRecords());
+        }
+        report.setChain(blocks, records);
+        return report;
+    }
+
+    public void close() throws IOException {
+        channel.close();
+    }
+}
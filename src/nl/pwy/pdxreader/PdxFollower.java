@@ -0,0 +1,234 @@
+/*
+ * PdxFollower.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows a table that an application keeps appending to, like tail -f.
+ * Each poll reads the header and the 6 byte header of the block the
+ * previous poll ended in; only records added after that point are read
+ * and decoded, also when they continue into new blocks linked from it.
+ * <p>
+ * poll() can be called from the caller's own loop, or start() polls on a
+ * background thread whenever the directory reports a change and at least
+ * every interval. Appends are what is followed: records inserted earlier
+ * in the chain, as in keyed tables, are not seen. When records disappear
+ * from the tail block the follower continues from what is there now and
+ * counts a resync.
+ *
+ * @author Robin van Emden
+ */
+public class PdxFollower implements Closeable {
+    private final PdxFile file;
+    private final Consumer<String[]> consumer;
+    private final PdxRecordDecoder decoder;
+    private int tailBlock;
+    private int tailRecords;
+    private long delivered;
+    private int resyncs;
+    private volatile Exception lastError;
+    private volatile boolean running;
+    private Thread thread;
+    private WatchService watcher;
+
+    /**
+     * Constructor
+     *
+     * @param file      table to follow, closed by close()
+     * @param fromStart deliver the records already in the table first;
+     *                  false to deliver only records added from now on
+     * @param consumer  receives rows indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public PdxFollower(PdxFile file, boolean fromStart, Consumer<String[]> consumer) throws IOException {
+        this.file = file;
+        this.consumer = consumer;
+        this.decoder = new PdxRecordDecoder(file.getHeader());
+        if (!fromStart) {
+            int[] chain = file.chainBlocks();
+            if (chain.length > 0) {
+                tailBlock = chain[chain.length - 1];
+                tailRecords = file.readBlockHeader(tailBlock).getNumRecords();
+            }
+        }
+    }
+
+    /**
+     * Delivers the records added since the previous poll.
+     *
+     * @return number of rows delivered
+     * @throws IOException
+     */
+    public synchronized int poll() throws IOException {
+        PdxHeader now = file.readCurrentHeader();
+        int fileBlocks = now.getFileBlocks();
+        int block = tailBlock;
+        int skip = tailRecords;
+        if (block == 0) {
+            block = now.getFirstBlock();
+            skip = 0;
+        }
+        if (block > fileBlocks) {
+            // the table was emptied or rebuilt
+            resyncs++;
+            tailBlock = 0;
+            tailRecords = 0;
+            return 0;
+        }
+        boolean[] visited = new boolean[fileBlocks + 1];
+        int n = 0;
+        while (block > 0 && block <= fileBlocks && !visited[block]) {
+            visited[block] = true;
+            PdxBlock header = file.readBlockHeader(block);
+            int records = header.getNumRecords();
+            if (records < skip) {
+                resyncs++;
+                skip = records;
+            }
+            tailBlock = block;
+            tailRecords = skip;
+            if (records > skip) {
+                PdxBlock data = file.readBlock(block);
+                records = data.getNumRecords();
+                for (int i = skip; i < records; i++) {
+                    // move the tail first, a row the consumer fails on is not delivered again
+                    tailRecords = i + 1;
+                    consumer.accept(decoder.decode(data.getData(), data.getRecordOffset(i)));
+                    delivered++;
+                    n++;
+                }
+                header = data;
+            }
+            tailRecords = records;
+            block = header.getNextBlock();
+            skip = 0;
+        }
+        return n;
+    }
+
+    /**
+     * Polls on a background daemon thread until close(). Errors do not stop
+     * the thread, see getLastError().
+     *
+     * @param intervalMillis longest time between polls
+     */
+    public synchronized void start(final long intervalMillis) {
+        if (thread != null) throw new IllegalStateException("Already started");
+        try {
+            Path directory = file.getFile().getAbsoluteFile().getParentFile().toPath();
+            watcher = FileSystems.getDefault().newWatchService();
+            directory.register(watcher, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            // polling alone still works
+            watcher = null;
+        }
+        running = true;
+        thread = new Thread(new Runnable() {
+            public void run() {
+                follow(intervalMillis);
+            }
+        }, "PdxFollower-" + file.getFile().getName());
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void follow(long intervalMillis) {
+        while (running) {
+            try {
+                poll();
+                lastError = null;
+            } catch (IOException e) {
+                lastError = e;
+            } catch (RuntimeException e) {
+                // thrown by the consumer
+                lastError = e;
+            }
+            try {
+                if (watcher != null) {
+                    WatchKey key = watcher.poll(intervalMillis, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents();
+                        key.reset();
+                    }
+                } else {
+                    Thread.sleep(intervalMillis);
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Number of rows delivered so far.
+     */
+    public synchronized long getDelivered() {
+        return delivered;
+    }
+
+    /**
+     * Number of times records disappeared from the tail of the table.
+     */
+    public synchronized int getResyncs() {
+        return resyncs;
+    }
+
+    /**
+     * Error of the last background poll: an IOException, or what the
+     * consumer threw.
+     *
+     * @return the error, null if the last poll succeeded
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stops the background thread and closes the table. Called from the
+     * consumer on the background thread, it does not wait for that thread.
+     */
+    public void close() throws IOException {
+        Thread t;
+        synchronized (this) {
+            running = false;
+            t = thread;
+            thread = null;
+            if (watcher != null) watcher.close();
+        }
+        if (t != null && t != Thread.currentThread()) {
+            t.interrupt();
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        file.close();
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * PdxGroup.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * One group produced by PdxGroupBy.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxGroup {
+    private final String[] key;
+    private final long count;
+    private final PdxAggregate[] aggregates;
+
+    PdxGroup(String[] key, long count, PdxAggregate[] aggregates) {
+        this.key = key;
+        this.count = count;
+        this.aggregates = aggregates;
+    }
+
+    /**
+     * Key values, in the order of the key fields.
+     */
+    public String[] getKey() {
+        return key.clone();
+    }
+
+    /**
+     * Number of records in the group.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Aggregate of a value field.
+     *
+     * @param value index in the value fields, starting at 0
+     */
+    public PdxAggregate getAggregate(int value) {
+        return aggregates[value];
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < key.length; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(key[i]);
+        }
+        sb.append(": ").append(count);
+        for (PdxAggregate a : aggregates) {
+            sb.append(" [").append(a).append(']');
+        }
+        return sb.toString();
+    }
+}
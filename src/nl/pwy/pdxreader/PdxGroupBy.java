@@ -0,0 +1,193 @@
+/*
+ * PdxGroupBy.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Groups the records of a table on one or more key fields and aggregates
+ * numeric value fields per group. Keys are hashed as raw record bytes and
+ * only decoded to Strings once per group, for the result.
+ * <p>
+ * With more than one thread the block chain is split into ranges, each
+ * thread groups its own range into a private table and the tables are
+ * merged at the end.
+ *
+ * @author Robin van Emden
+ */
+public class PdxGroupBy {
+    private final PdxFile file;
+    private final int[] keyFields;
+    private final int[] valueFields;
+    private final int[] valueTypes;
+    private final int keyWidth;
+    private PdxRecordFilter filter;
+
+    /**
+     * Constructor
+     *
+     * @param file        table to group
+     * @param keyFields   fields to group on
+     * @param valueFields numeric fields to aggregate, may be empty
+     */
+    public PdxGroupBy(PdxFile file, int[] keyFields, int[] valueFields) {
+        if (keyFields.length == 0) {
+            throw new IllegalArgumentException("No key fields");
+        }
+        this.file = file;
+        this.keyFields = keyFields.clone();
+        this.valueFields = valueFields.clone();
+        this.valueTypes = new int[valueFields.length];
+        PdxHeader header = file.getHeader();
+        int width = 0;
+        for (int field : keyFields) {
+            file.fieldType(field);
+            width += header.getFieldWidth(field);
+        }
+        this.keyWidth = width;
+        for (int v = 0; v < valueFields.length; v++) {
+            valueTypes[v] = file.fieldType(valueFields[v]);
+            if (!PdxFieldCodec.isNumeric(valueTypes[v])) {
+                throw new IllegalArgumentException("Field " + valueFields[v] + " is not numeric");
+            }
+        }
+    }
+
+    /**
+     * Only group records accepted by the filter, null for all records.
+     * With several threads the filter is called concurrently.
+     */
+    public void setFilter(PdxRecordFilter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Groups the table on the calling thread.
+     *
+     * @return groups in order of first appearance
+     * @throws IOException
+     */
+    public List<PdxGroup> run() throws IOException {
+        PdxGroupTable table = new PdxGroupTable(keyWidth, valueFields.length);
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                groupBlock(table, chain.next(), new byte[keyWidth]);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        return groups(table);
+    }
+
+    /**
+     * Groups the table on several threads and merges the results.
+     *
+     * @param threads number of threads
+     * @return groups, ordered by the block range they first appear in
+     * @throws IOException
+     */
+    public List<PdxGroup> run(int threads) throws IOException {
+        if (threads <= 1) {
+            return run();
+        }
+        final int[] blocks = file.chainBlocks();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PdxGroupTable>> parts = new ArrayList<Future<PdxGroupTable>>();
+            for (int t = 0; t < threads; t++) {
+                final int from = (int) ((long) blocks.length * t / threads);
+                final int to = (int) ((long) blocks.length * (t + 1) / threads);
+                parts.add(pool.submit(new Callable<PdxGroupTable>() {
+                    public PdxGroupTable call() throws IOException {
+                        PdxGroupTable table = new PdxGroupTable(keyWidth, valueFields.length);
+                        byte[] key = new byte[keyWidth];
+                        for (int b = from; b < to; b++) {
+                            groupBlock(table, file.readBlock(blocks[b]), key);
+                        }
+                        return table;
+                    }
+                }));
+            }
+            PdxGroupTable result = parts.get(0).get();
+            for (int t = 1; t < threads; t++) {
+                result.merge(parts.get(t).get());
+            }
+            return groups(result);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+            throw new IllegalStateException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private void groupBlock(PdxGroupTable table, PdxBlock block, byte[] key) {
+        PdxHeader header = file.getHeader();
+        byte[] data = block.getData();
+        int recordOffset = block.getRecordOffset(0);
+        for (int i = 0; i < block.getNumRecords(); i++, recordOffset += header.getRecordSize()) {
+            if (filter != null && !filter.accept(data, recordOffset)) continue;
+            int k = 0;
+            for (int field : keyFields) {
+                int width = header.getFieldWidth(field);
+                System.arraycopy(data, recordOffset + header.getFieldOffset(field), key, k, width);
+                k += width;
+            }
+            int group = table.group(key, 0);
+            table.increment(group);
+            for (int v = 0; v < valueFields.length; v++) {
+                int off = recordOffset + header.getFieldOffset(valueFields[v]);
+                table.add(group, v, PdxFieldCodec.decodeNumber(valueTypes[v], data, off));
+            }
+        }
+    }
+
+    private List<PdxGroup> groups(PdxGroupTable table) {
+        PdxHeader header = file.getHeader();
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        List<PdxGroup> groups = new ArrayList<PdxGroup>(table.size());
+        byte[] keys = table.keys();
+        for (int g = 0; g < table.size(); g++) {
+            String[] key = new String[keyFields.length];
+            int off = g * keyWidth;
+            for (int k = 0; k < keyFields.length; k++) {
+                key[k] = decoder.format(keyFields[k], keys, off);
+                off += header.getFieldWidth(keyFields[k]);
+            }
+            PdxAggregate[] aggregates = new PdxAggregate[valueFields.length];
+            for (int v = 0; v < valueFields.length; v++) {
+                aggregates[v] = table.aggregate(g, v);
+            }
+            groups.add(new PdxGroup(key, table.count(g), aggregates));
+        }
+        return groups;
+    }
+}
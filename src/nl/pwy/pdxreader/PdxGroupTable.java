@@ -0,0 +1,184 @@
+/*
+ * PdxGroupTable.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash table from fixed width raw key bytes to groups.
+ * Keys are stored back to back in one byte array and the aggregates of
+ * each group in parallel primitive arrays, so adding a record to an
+ * existing group allocates nothing.
+ *
+ * @author Robin van Emden
+ */
+final class PdxGroupTable {
+    private final int keyWidth;
+    private final int numValues;
+    private int[] slots;
+    private int mask;
+    private int size;
+    private int[] hashes;
+    private byte[] keys;
+    private long[] counts;
+    private long[] nonNull;
+    private double[] sums;
+    private double[] mins;
+    private double[] maxs;
+
+    /**
+     * Constructor
+     *
+     * @param keyWidth  number of key bytes
+     * @param numValues number of aggregated values per group
+     */
+    PdxGroupTable(int keyWidth, int numValues) {
+        this.keyWidth = keyWidth;
+        this.numValues = numValues;
+        this.slots = new int[64];
+        this.mask = slots.length - 1;
+        allocate(32);
+    }
+
+    private void allocate(int groups) {
+        hashes = hashes == null ? new int[groups] : Arrays.copyOf(hashes, groups);
+        keys = keys == null ? new byte[groups * keyWidth] : Arrays.copyOf(keys, groups * keyWidth);
+        counts = counts == null ? new long[groups] : Arrays.copyOf(counts, groups);
+        int n = groups * numValues;
+        int from = nonNull == null ? 0 : nonNull.length;
+        nonNull = nonNull == null ? new long[n] : Arrays.copyOf(nonNull, n);
+        sums = sums == null ? new double[n] : Arrays.copyOf(sums, n);
+        mins = mins == null ? new double[n] : Arrays.copyOf(mins, n);
+        maxs = maxs == null ? new double[n] : Arrays.copyOf(maxs, n);
+        Arrays.fill(mins, from, n, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxs, from, n, Double.NEGATIVE_INFINITY);
+    }
+
+    static int hash(byte[] key, int off, int len) {
+        int h = 0x811c9dc5;
+        for (int i = off; i < off + len; i++) {
+            h = (h ^ key[i]) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Finds the group of a key, adding a new group when not present.
+     *
+     * @param key bytes holding the key
+     * @param off offset of the key
+     * @return group number
+     */
+    int group(byte[] key, int off) {
+        return group(key, off, hash(key, off, keyWidth));
+    }
+
+    private int group(byte[] key, int off, int h) {
+        int slot = h & mask;
+        while (true) {
+            int g = slots[slot] - 1;
+            if (g < 0) break;
+            if (hashes[g] == h && equalKey(g, key, off)) return g;
+            slot = (slot + 1) & mask;
+        }
+        if (size == counts.length) {
+            allocate(size * 2);
+        }
+        int g = size++;
+        hashes[g] = h;
+        System.arraycopy(key, off, keys, g * keyWidth, keyWidth);
+        slots[slot] = g + 1;
+        if (size * 2 > slots.length) {
+            rehash();
+        }
+        return g;
+    }
+
+    private boolean equalKey(int g, byte[] key, int off) {
+        int base = g * keyWidth;
+        for (int i = 0; i < keyWidth; i++) {
+            if (keys[base + i] != key[off + i]) return false;
+        }
+        return true;
+    }
+
+    private void rehash() {
+        slots = new int[slots.length * 2];
+        mask = slots.length - 1;
+        for (int g = 0; g < size; g++) {
+            int slot = hashes[g] & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = g + 1;
+        }
+    }
+
+    /**
+     * Counts a record in a group.
+     */
+    void increment(int group) {
+        counts[group]++;
+    }
+
+    /**
+     * Adds a value to a group, NaN counting as blank.
+     */
+    void add(int group, int value, double v) {
+        if (v != v) return;
+        int i = group * numValues + value;
+        nonNull[i]++;
+        sums[i] += v;
+        if (v < mins[i]) mins[i] = v;
+        if (v > maxs[i]) maxs[i] = v;
+    }
+
+    /**
+     * Adds the groups of a table built over other blocks.
+     */
+    void merge(PdxGroupTable other) {
+        for (int o = 0; o < other.size; o++) {
+            int g = group(other.keys, o * keyWidth, other.hashes[o]);
+            counts[g] += other.counts[o];
+            for (int v = 0; v < numValues; v++) {
+                int i = g * numValues + v;
+                int j = o * numValues + v;
+                nonNull[i] += other.nonNull[j];
+                sums[i] += other.sums[j];
+                if (other.mins[j] < mins[i]) mins[i] = other.mins[j];
+                if (other.maxs[j] > maxs[i]) maxs[i] = other.maxs[j];
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    byte[] keys() {
+        return keys;
+    }
+
+    long count(int group) {
+        return counts[group];
+    }
+
+    PdxAggregate aggregate(int group, int value) {
+        int i = group * numValues + value;
+        return new PdxAggregate(counts[group], nonNull[i], sums[i], mins[i], maxs[i]);
+    }
+}
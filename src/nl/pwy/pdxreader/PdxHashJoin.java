@@ -0,0 +1,294 @@
+/*
+ * PdxHashJoin.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Inner equi-join of two tables on one field each. The table with fewer
+ * records is the build side: its keys and the raw bytes of its projected
+ * fields are packed into arrays behind an open addressing index. The
+ * other table is then streamed block by block and probed, so memory use
+ * is proportional to the build side only.
+ * <p>
+ * Joined rows are indexed from 1: the projected fields of the left table
+ * first, then those of the right table. Blank keys never match.
+ *
+ * @author Robin van Emden
+ */
+public class PdxHashJoin {
+    private static final int KEY_RAW = 0;
+    private static final int KEY_LONG = 1;
+    private static final int KEY_DOUBLE = 2;
+
+    private final PdxFile left;
+    private final PdxFile right;
+    private final int leftKey;
+    private final int rightKey;
+    private final int keyMode;
+    private final int keyWidth;
+    private int[] leftFields;
+    private int[] rightFields;
+    private PdxRecordFilter leftFilter;
+    private PdxRecordFilter rightFilter;
+    private volatile boolean stopped;
+
+    // build side
+    private int size;
+    private int[] slots;
+    private int[] hashes;
+    private int[] next;
+    private byte[] keys;
+    private byte[] values;
+    private int valueWidth;
+
+    /**
+     * Constructor, projects all fields of both tables
+     *
+     * @param left     left table
+     * @param leftKey  join field of the left table
+     * @param right    right table
+     * @param rightKey join field of the right table
+     */
+    public PdxHashJoin(PdxFile left, int leftKey, PdxFile right, int rightKey) {
+        this.left = left;
+        this.right = right;
+        this.leftKey = leftKey;
+        this.rightKey = rightKey;
+        int leftType = left.fieldType(leftKey);
+        int rightType = right.fieldType(rightKey);
+        if (leftType == PdxReader.pxfAlpha && rightType == PdxReader.pxfAlpha) {
+            keyMode = KEY_RAW;
+            keyWidth = Math.max(left.getHeader().getFieldWidth(leftKey), right.getHeader().getFieldWidth(rightKey));
+        } else if (leftType == rightType && leftType != PdxReader.pxfAlpha) {
+            keyMode = KEY_RAW;
+            keyWidth = left.getHeader().getFieldWidth(leftKey);
+        } else if (isInteger(leftType) && isInteger(rightType)) {
+            keyMode = KEY_LONG;
+            keyWidth = 8;
+        } else if (PdxFieldCodec.isNumeric(leftType) && PdxFieldCodec.isNumeric(rightType)) {
+            keyMode = KEY_DOUBLE;
+            keyWidth = 8;
+        } else {
+            throw new IllegalArgumentException("Can not join field types " + leftType + " and " + rightType);
+        }
+        this.leftFields = allFields(left);
+        this.rightFields = allFields(right);
+    }
+
+    private static boolean isInteger(int type) {
+        return type == PdxReader.pxfShort || type == PdxReader.pxfLong || type == PdxReader.pxfAutoInc;
+    }
+
+    private static int[] allFields(PdxFile file) {
+        int[] fields = new int[file.getHeader().getNumFields()];
+        for (int i = 0; i < fields.length; i++) {
+            fields[i] = i + 1;
+        }
+        return fields;
+    }
+
+    /**
+     * Fields of the left table in the joined rows.
+     */
+    public void setLeftProjection(int... fields) {
+        for (int field : fields) left.fieldType(field);
+        this.leftFields = fields.clone();
+    }
+
+    /**
+     * Fields of the right table in the joined rows.
+     */
+    public void setRightProjection(int... fields) {
+        for (int field : fields) right.fieldType(field);
+        this.rightFields = fields.clone();
+    }
+
+    /**
+     * Only join records of the left table accepted by the filter.
+     */
+    public void setLeftFilter(PdxRecordFilter filter) {
+        this.leftFilter = filter;
+    }
+
+    /**
+     * Only join records of the right table accepted by the filter.
+     */
+    public void setRightFilter(PdxRecordFilter filter) {
+        this.rightFilter = filter;
+    }
+
+    /**
+     * Writes the normalized join key of a record.
+     *
+     * @return false if the key is blank
+     */
+    private boolean key(PdxHeader header, int field, byte[] data, int recordOffset, byte[] key, int k) {
+        int off = recordOffset + header.getFieldOffset(field);
+        int width = header.getFieldWidth(field);
+        if (PdxFieldCodec.isNull(data, off, width)) return false;
+        long bits;
+        switch (keyMode) {
+            case KEY_RAW:
+                System.arraycopy(data, off, key, k, width);
+                Arrays.fill(key, k + width, k + keyWidth, (byte) 0);
+                return true;
+            case KEY_LONG:
+                bits = (long) PdxFieldCodec.decodeNumber(header.getFieldType(field), data, off);
+                break;
+            default:
+                bits = Double.doubleToLongBits(PdxFieldCodec.decodeNumber(header.getFieldType(field), data, off));
+                break;
+        }
+        for (int i = 0; i < 8; i++) {
+            key[k + i] = (byte) (bits >>> (56 - 8 * i));
+        }
+        return true;
+    }
+
+    /**
+     * Ends a running join after the current record, for instance from the
+     * consumer once it has enough rows. The rest of the probe side is not
+     * read.
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Runs the join.
+     *
+     * @param consumer receives the joined rows
+     * @throws IOException
+     */
+    public void run(Consumer<String[]> consumer) throws IOException {
+        stopped = false;
+        boolean buildLeft = left.getHeader().getNumRecords() <= right.getHeader().getNumRecords();
+        PdxFile build = buildLeft ? left : right;
+        PdxFile probe = buildLeft ? right : left;
+        int[] buildFields = buildLeft ? leftFields : rightFields;
+        int[] probeFields = buildLeft ? rightFields : leftFields;
+        build(build, buildLeft ? leftKey : rightKey, buildFields, buildLeft ? leftFilter : rightFilter);
+        PdxRecordFilter probeFilter = buildLeft ? rightFilter : leftFilter;
+
+        PdxHeader buildHeader = build.getHeader();
+        PdxHeader probeHeader = probe.getHeader();
+        int probeKey = buildLeft ? rightKey : leftKey;
+        int[] valueOffsets = valueOffsets(buildHeader, buildFields);
+        int leftBase = 1;
+        int rightBase = 1 + leftFields.length;
+        int buildBase = buildLeft ? leftBase : rightBase;
+        int probeBase = buildLeft ? rightBase : leftBase;
+        PdxRecordDecoder buildDecoder = new PdxRecordDecoder(buildHeader);
+        PdxRecordDecoder probeDecoder = new PdxRecordDecoder(probeHeader);
+        byte[] key = new byte[keyWidth];
+        PdxBlockChain chain = probe.blockChain(true);
+        try {
+            while (!stopped && chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords() && !stopped; i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (probeFilter != null && !probeFilter.accept(data, recordOffset)) continue;
+                    if (!key(probeHeader, probeKey, data, recordOffset, key, 0)) continue;
+                    int h = PdxGroupTable.hash(key, 0, keyWidth);
+                    for (int e = slots[h & (slots.length - 1)] - 1; e >= 0; e = next[e]) {
+                        if (hashes[e] != h || Arrays.compare(keys, e * keyWidth, (e + 1) * keyWidth, key, 0, keyWidth) != 0) {
+                            continue;
+                        }
+                        String[] row = new String[1 + leftFields.length + rightFields.length];
+                        for (int f = 0; f < probeFields.length; f++) {
+                            row[probeBase + f] = probeDecoder.decodeField(probeFields[f], data, recordOffset);
+                        }
+                        for (int f = 0; f < buildFields.length; f++) {
+                            row[buildBase + f] = buildDecoder.format(buildFields[f], values, e * valueWidth + valueOffsets[f]);
+                        }
+                        consumer.accept(row);
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+    }
+
+    private static int[] valueOffsets(PdxHeader header, int[] fields) {
+        int[] offsets = new int[fields.length + 1];
+        for (int f = 0; f < fields.length; f++) {
+            offsets[f + 1] = offsets[f] + header.getFieldWidth(fields[f]);
+        }
+        return offsets;
+    }
+
+    /**
+     * Packs the keys and projected fields of the build side. The index
+     * holds the first entry of each bucket; the other entries of the
+     * bucket follow through next[], in table order.
+     */
+    private void build(PdxFile build, int keyField, int[] fields, PdxRecordFilter filter) throws IOException {
+        PdxHeader header = build.getHeader();
+        int[] valueOffsets = valueOffsets(header, fields);
+        valueWidth = valueOffsets[fields.length];
+        int capacity = Math.max(16, header.getNumRecords());
+        keys = new byte[capacity * keyWidth];
+        values = new byte[capacity * valueWidth];
+        hashes = new int[capacity];
+        next = new int[capacity];
+        size = 0;
+        PdxBlockChain chain = build.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (filter != null && !filter.accept(data, recordOffset)) continue;
+                    if (size == hashes.length) {
+                        capacity = size * 2;
+                        keys = Arrays.copyOf(keys, capacity * keyWidth);
+                        values = Arrays.copyOf(values, capacity * valueWidth);
+                        hashes = Arrays.copyOf(hashes, capacity);
+                        next = Arrays.copyOf(next, capacity);
+                    }
+                    if (!key(header, keyField, data, recordOffset, keys, size * keyWidth)) continue;
+                    hashes[size] = PdxGroupTable.hash(keys, size * keyWidth, keyWidth);
+                    for (int f = 0; f < fields.length; f++) {
+                        System.arraycopy(data, recordOffset + header.getFieldOffset(fields[f]),
+                                values, size * valueWidth + valueOffsets[f], header.getFieldWidth(fields[f]));
+                    }
+                    size++;
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        slots = new int[Integer.highestOneBit(Math.max(1, size)) * 4];
+        int mask = slots.length - 1;
+        for (int e = size - 1; e >= 0; e--) {
+            int slot = hashes[e] & mask;
+            next[e] = slots[slot] - 1;
+            slots[slot] = e + 1;
+        }
+    }
+}
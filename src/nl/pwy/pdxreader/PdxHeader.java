@@ -0,0 +1,333 @@
+/*
+ * PdxHeader.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.EOFException;
+import java.io.IOException;
+
+/**
+ * Parsed PDX file header. Field information is indexed from 1 to
+ * getNumFields(), like the columns of PdxReader.getData().
+ *
+ * @author Robin van Emden
+ */
+public final class PdxHeader {
+
+    /**
+     * Size of the fixed part of the header common to all versions
+     */
+    static final int FIXED_SIZE = 0x58;
+
+    /**
+     * Size of a datablock header: nextBlock, prevBlock and addDataSize
+     */
+    static final int BLOCK_HEADER_SIZE = 6;
+
+    private int recordSize;
+    private int headerSize;
+    private int fileType;
+    private int maxTableSize;
+    private int numRecords;
+    private int nextBlock;
+    private int fileBlocks;
+    private int firstBlock;
+    private int lastBlock;
+    private int modifiedFlags1;
+    private int numFields;
+    private int primaryKeyFields;
+    private int sortOrder;
+    private int modifiedFlags2;
+    private int changeCount1;
+    private int changeCount2;
+    private int writeProtected;
+    private int fileVersionID;
+    private int maxBlocks;
+    private int autoInc;
+    private int dosCodePage;
+    private int changeCount4;
+    private int[] fType;
+    private int[] fSize;
+    private int[] fOffset;
+    private String[] fName;
+
+    private PdxHeader() {
+    }
+
+    /**
+     * Parses the header at the start of a PDX file image.
+     *
+     * @param data at least the first headerSize bytes of the file
+     * @return the parsed header
+     * @throws IOException if data is too short to hold the header or the
+     *                     header sizes are impossible
+     */
+    public static PdxHeader parse(byte[] data) throws IOException {
+        PdxHeader h = new PdxHeader();
+        try {
+            h.recordSize = PdxBytes.u16le(data, 0x00);
+            h.headerSize = PdxBytes.u16le(data, 0x02);
+            h.fileType = PdxBytes.u8(data, 0x04);
+            h.maxTableSize = PdxBytes.u8(data, 0x05);
+            h.numRecords = PdxBytes.s32le(data, 0x06);
+            h.nextBlock = PdxBytes.u16le(data, 0x0a);
+            h.fileBlocks = PdxBytes.u16le(data, 0x0c);
+            h.firstBlock = PdxBytes.u16le(data, 0x0e);
+            h.lastBlock = PdxBytes.u16le(data, 0x10);
+            h.modifiedFlags1 = PdxBytes.u8(data, 0x14);
+            h.numFields = PdxBytes.s16le(data, 0x21);
+            h.primaryKeyFields = PdxBytes.s16le(data, 0x23);
+            h.sortOrder = PdxBytes.u8(data, 0x29);
+            h.modifiedFlags2 = PdxBytes.u8(data, 0x2a);
+            h.changeCount1 = PdxBytes.u8(data, 0x2d);
+            h.changeCount2 = PdxBytes.u8(data, 0x2e);
+            h.writeProtected = PdxBytes.u8(data, 0x38);
+            h.fileVersionID = PdxBytes.u8(data, 0x39);
+            h.maxBlocks = PdxBytes.u16le(data, 0x3a);
+            h.autoInc = PdxBytes.s32le(data, 0x49);
+            if (h.recordSize <= 0) {
+                throw new IOException("Invalid recordSize " + h.recordSize);
+            }
+            if (h.headerSize <= 0) {
+                throw new IOException("Invalid headerSize " + h.headerSize);
+            }
+            if (h.maxTableSize < 1 || h.maxTableSize > 32) {
+                throw new IOException("Invalid maxTableSize " + h.maxTableSize);
+            }
+            if (h.numFields < 0) {
+                throw new IOException("Invalid numFields " + h.numFields);
+            }
+
+            h.fType = new int[h.numFields + 1];
+            h.fSize = new int[h.numFields + 1];
+            h.fName = new String[h.numFields + 1];
+            boolean indexFile = h.isIndexFile();
+            int p = FIXED_SIZE;
+            if (!indexFile && h.fileVersionID > 4) {
+                h.dosCodePage = PdxBytes.u16le(data, 0x6a);
+                h.changeCount4 = PdxBytes.u16le(data, 0x70);
+                p = 0x78;
+            }
+            for (int i = 1; i <= h.numFields; i++) {
+                h.fType[i] = PdxBytes.u8(data, p++);
+                h.fSize[i] = PdxBytes.u8(data, p++);
+            }
+            h.fOffset = new int[h.numFields + 2];
+            for (int i = 1; i <= h.numFields; i++) {
+                h.fOffset[i + 1] = h.fOffset[i] + h.getFieldWidth(i);
+            }
+            if (!indexFile) {
+                p += 83 + (h.numFields * 4);
+                StringBuilder sb = new StringBuilder();
+                for (int i = 1; i <= h.numFields; i++) {
+                    int bt;
+                    sb.setLength(0);
+                    while ((bt = PdxBytes.u8(data, p++)) != 0) {
+                        sb.append((char) bt);
+                    }
+                    h.fName[i] = sb.toString();
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new EOFException("Header needs more than " + data.length + " bytes");
+        }
+        return h;
+    }
+
+    /**
+     * Is this a .PX or secondary index file, without field names?
+     *
+     * @return true for fileType 1, 4, 6, 7 and 8
+     */
+    public boolean isIndexFile() {
+        switch (fileType) {
+            case 1:
+            case 4:
+            case 6:
+            case 7:
+            case 8:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    public int getHeaderSize() {
+        return headerSize;
+    }
+
+    public int getFileType() {
+        return fileType;
+    }
+
+    public int getMaxTableSize() {
+        return maxTableSize;
+    }
+
+    public int getNumRecords() {
+        return numRecords;
+    }
+
+    public int getNextBlock() {
+        return nextBlock;
+    }
+
+    public int getFileBlocks() {
+        return fileBlocks;
+    }
+
+    public int getFirstBlock() {
+        return firstBlock;
+    }
+
+    public int getLastBlock() {
+        return lastBlock;
+    }
+
+    public int getModifiedFlags1() {
+        return modifiedFlags1;
+    }
+
+    public int getNumFields() {
+        return numFields;
+    }
+
+    public int getPrimaryKeyFields() {
+        return primaryKeyFields;
+    }
+
+    public int getSortOrder() {
+        return sortOrder;
+    }
+
+    public int getModifiedFlags2() {
+        return modifiedFlags2;
+    }
+
+    public int getChangeCount1() {
+        return changeCount1;
+    }
+
+    public int getChangeCount2() {
+        return changeCount2;
+    }
+
+    public boolean isWriteProtected() {
+        return writeProtected != 0;
+    }
+
+    public int getFileVersionID() {
+        return fileVersionID;
+    }
+
+    public int getMaxBlocks() {
+        return maxBlocks;
+    }
+
+    public int getAutoInc() {
+        return autoInc;
+    }
+
+    /**
+     * DOS code page the table was created with, 0 before version 4.
+     */
+    public int getDosCodePage() {
+        return dosCodePage;
+    }
+
+    /**
+     * Change counter at 0x70, 0 before version 4.
+     */
+    public int getChangeCount4() {
+        return changeCount4;
+    }
+
+    /**
+     * Size of a datablock in bytes.
+     *
+     * @return maxTableSize * 1024
+     */
+    public int getBlockSize() {
+        return maxTableSize * 1024;
+    }
+
+    /**
+     * File offset of a datablock.
+     *
+     * @param blockNumber block number as used by the block chain, the first block is 1
+     * @return offset of the block header in the file
+     */
+    public long getBlockOffset(int blockNumber) {
+        return headerSize + (long) (blockNumber - 1) * getBlockSize();
+    }
+
+    /**
+     * Number of records that fit in one datablock.
+     */
+    public int getRecordsPerBlock() {
+        return recordSize > 0 ? (getBlockSize() - BLOCK_HEADER_SIZE) / recordSize : 0;
+    }
+
+    public int getFieldType(int field) {
+        return fType[field];
+    }
+
+    /**
+     * Field size as stored in the header; for BCD fields this is the
+     * number of digits, see getFieldWidth.
+     */
+    public int getFieldSize(int field) {
+        return fSize[field];
+    }
+
+    /**
+     * Number of bytes the field occupies in a record.
+     */
+    public int getFieldWidth(int field) {
+        return fType[field] == PdxReader.pxfBCD ? 17 : fSize[field];
+    }
+
+    /**
+     * Offset of the field from the start of its record.
+     */
+    public int getFieldOffset(int field) {
+        return fOffset[field];
+    }
+
+    /**
+     * Field name, null for index files.
+     */
+    public String getFieldName(int field) {
+        return fName[field];
+    }
+
+    /**
+     * Looks up a field by name, ignoring case.
+     *
+     * @param name field name
+     * @return field number, or 0 if there is no such field
+     */
+    public int getFieldNumber(String name) {
+        for (int i = 1; i <= numFields; i++) {
+            if (fName[i] != null && fName[i].equalsIgnoreCase(name)) return i;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * PdxPredicate.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compares one field of a record with a constant, on the raw record bytes.
+ * Alpha fields compare byte by byte, case sensitive; numeric fields, dates
+ * and times compare as numbers. A blank field only passes IS NULL.
+ *
+ * @author Robin van Emden
+ */
+final class PdxPredicate implements PdxRecordFilter {
+    static final int EQ = 0;
+    static final int NE = 1;
+    static final int LT = 2;
+    static final int LE = 3;
+    static final int GT = 4;
+    static final int GE = 5;
+    static final int IS_NULL = 6;
+    static final int NOT_NULL = 7;
+
+    private final int field;
+    private final int type;
+    private final int fieldOffset;
+    private final int width;
+    private final int op;
+    private final byte[] text;
+    private final double number;
+
+    /**
+     * Constructor
+     *
+     * @param header  header of the table
+     * @param field   field number, the first field is 1
+     * @param op      one of the operators above
+     * @param literal constant as written in the query, null for IS (NOT) NULL
+     */
+    PdxPredicate(PdxHeader header, int field, int op, String literal) {
+        this.field = field;
+        this.type = header.getFieldType(field);
+        this.fieldOffset = header.getFieldOffset(field);
+        this.width = header.getFieldWidth(field);
+        this.op = op;
+        if (op == IS_NULL || op == NOT_NULL) {
+            this.text = null;
+            this.number = Double.NaN;
+        } else if (type == PdxReader.pxfAlpha) {
+            this.text = literal.getBytes(StandardCharsets.ISO_8859_1);
+            this.number = Double.NaN;
+        } else if (type == PdxReader.pxfLogical || PdxFieldCodec.isNumeric(type)) {
+            this.text = null;
+            this.number = parseNumber(type, literal);
+        } else {
+            throw new IllegalArgumentException("Can not compare field " + header.getFieldName(field));
+        }
+    }
+
+    /**
+     * Reads a constant the way fields of the type are stored: dates as day
+     * numbers (d-m-yyyy or yyyy-mm-dd), times (h:m:s) as milliseconds.
+     */
+    static double parseNumber(int type, String literal) {
+        String s = literal.trim();
+        try {
+            if (type == PdxReader.pxfDate && s.indexOf('-', 1) > 0) {
+                return parseDate(s);
+            }
+            if (type == PdxReader.pxfTime && s.indexOf(':') > 0) {
+                String[] hms = s.split(":");
+                int seconds = 0;
+                for (int i = 0; i < 3; i++) {
+                    seconds = seconds * 60 + (i < hms.length ? Integer.parseInt(hms[i].trim()) : 0);
+                }
+                return seconds * 1000.0;
+            }
+            if (s.startsWith("$")) s = s.substring(1);
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a value for field type " + type + ": " + literal);
+        }
+    }
+
+    /**
+     * Day number of a date in d-m-yyyy or yyyy-mm-dd notation.
+     */
+    static int parseDate(String s) {
+        String[] parts = s.split("-");
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Not a date: " + s);
+        }
+        int a = Integer.parseInt(parts[0].trim());
+        int b = Integer.parseInt(parts[1].trim());
+        int c = Integer.parseInt(parts[2].trim());
+        BigDate date = parts[0].trim().length() == 4 ? new BigDate(a, b, c) : new BigDate(c, b, a);
+        return date.getOrdinal() + 719163;
+    }
+
+    /**
+     * May a block hold a record that passes, going by its zone map?
+     *
+     * @param zoneMap zone map of the table
+     * @param index   position of the block in the chain
+     */
+    boolean mayMatch(PdxZoneMap zoneMap, int index) {
+        if (text != null || type == PdxReader.pxfLogical) return true;
+        return zoneMap.mayMatch(index, field, op, number);
+    }
+
+    /**
+     * May a block hold a record that passes, going by its Bloom filters?
+     * Only alpha equality can be ruled out.
+     *
+     * @param bloomFilter Bloom filters of the table
+     * @param index       position of the block in the chain
+     */
+    boolean mayMatch(PdxBloomFilter bloomFilter, int index) {
+        if (op != EQ || text == null) return true;
+        return bloomFilter.mightContain(index, field, text);
+    }
+
+    public boolean accept(byte[] data, int recordOffset) {
+        int off = recordOffset + fieldOffset;
+        boolean blank = PdxFieldCodec.isNull(data, off, width);
+        if (op == IS_NULL) return blank;
+        if (blank) return false;
+        if (op == NOT_NULL) return true;
+        int c;
+        if (text != null) {
+            c = 0;
+            for (int i = 0; i < Math.max(width, text.length) && c == 0; i++) {
+                int a = i < width ? data[off + i] & 0xff : 0;
+                int b = i < text.length ? text[i] & 0xff : 0;
+                c = a - b;
+            }
+        } else {
+            double v = type == PdxReader.pxfLogical
+                    ? (data[off] & 0xff) ^ 0x80
+                    : PdxFieldCodec.decodeNumber(type, data, off);
+            c = v < number ? -1 : v > number ? 1 : v == number ? 0 : 2;
+            if (c == 2) return false;
+        }
+        switch (op) {
+            case EQ:
+                return c == 0;
+            case NE:
+                return c != 0;
+            case LT:
+                return c < 0;
+            case LE:
+                return c <= 0;
+            case GT:
+                return c > 0;
+            default:
+                return c >= 0;
+        }
+    }
+}
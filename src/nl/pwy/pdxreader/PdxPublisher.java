@@ -0,0 +1,167 @@
+/*
+ * PdxPublisher.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the rows of a table as batches, one batch per datablock in the
+ * chain. A block is only read and decoded when the subscriber has
+ * requested a batch, so a slow subscriber slows down reading instead of
+ * letting decoded rows pile up.
+ * <p>
+ * Every subscriber gets its own pass over the chain. Signals to a
+ * subscriber are delivered one at a time on the executor, by default the
+ * common ForkJoinPool. Rows are indexed from 1 like PdxRecordDecoder rows;
+ * empty blocks are skipped.
+ *
+ * @author Robin van Emden
+ */
+public class PdxPublisher implements Flow.Publisher<List<String[]>> {
+    private final PdxFile file;
+    private final Executor executor;
+
+    /**
+     * Constructor, delivers on the common ForkJoinPool
+     *
+     * @param file table to publish
+     */
+    public PdxPublisher(PdxFile file) {
+        this(file, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param file     table to publish
+     * @param executor runs the reading, decoding and signalling
+     */
+    public PdxPublisher(PdxFile file, Executor executor) {
+        this.file = file;
+        this.executor = executor;
+    }
+
+    public void subscribe(Flow.Subscriber<? super List<String[]>> subscriber) {
+        if (subscriber == null) throw new NullPointerException();
+        BlockSubscription subscription = new BlockSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.schedule();
+    }
+
+    /**
+     * Demand and position of one subscriber. run() is the only place that
+     * signals the subscriber; the wip counter makes sure it runs on one
+     * thread at a time.
+     */
+    private final class BlockSubscription implements Flow.Subscription, Runnable {
+        private final Flow.Subscriber<? super List<String[]>> subscriber;
+        private final PdxBlockChain chain;
+        private final PdxRecordDecoder decoder;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        BlockSubscription(Flow.Subscriber<? super List<String[]>> subscriber) {
+            this.subscriber = subscriber;
+            this.chain = file.blockChain(false);
+            this.decoder = new PdxRecordDecoder(file.getHeader());
+        }
+
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("Request must be positive: " + n);
+            } else {
+                long current;
+                do {
+                    current = demand.get();
+                    if (current == Long.MAX_VALUE) break;
+                } while (!demand.compareAndSet(current, current + n < 0 ? Long.MAX_VALUE : current + n));
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        void schedule() {
+            if (wip.getAndIncrement() == 0) executor.execute(this);
+        }
+
+        public void run() {
+            try {
+                drain();
+            } catch (Throwable t) {
+                // decoding or the subscriber failed, end the subscription
+                if (cancelled) return;
+                cancelled = true;
+                subscriber.onError(t);
+            }
+        }
+
+        private void drain() {
+            int missed = 1;
+            while (true) {
+                if (cancelled) return;
+                if (error != null) {
+                    cancelled = true;
+                    subscriber.onError(error);
+                    return;
+                }
+                long requested = demand.get();
+                long emitted = 0;
+                while (true) {
+                    if (cancelled) return;
+                    boolean more;
+                    PdxBlock block = null;
+                    try {
+                        more = chain.hasNext();
+                        if (more && emitted != requested) block = chain.next();
+                    } catch (UncheckedIOException e) {
+                        cancelled = true;
+                        subscriber.onError(e.getCause());
+                        return;
+                    }
+                    if (!more) {
+                        cancelled = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    if (block == null) break;
+                    if (block.getNumRecords() == 0) continue;
+                    List<String[]> rows = new ArrayList<String[]>(block.getNumRecords());
+                    for (int i = 0; i < block.getNumRecords(); i++) {
+                        rows.add(decoder.decode(block.getData(), block.getRecordOffset(i)));
+                    }
+                    subscriber.onNext(rows);
+                    emitted++;
+                }
+                if (emitted != 0 && requested != Long.MAX_VALUE) demand.addAndGet(-emitted);
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) return;
+            }
+        }
+    }
+}
@@ -0,0 +1,941 @@
+/*
+ * PdxQuery.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * A small SQL dialect over the tables in one directory, run on the block
+ * level operators: the WHERE clause is pushed down as a PdxRecordFilter,
+ * ORDER BY on one table uses PdxSort, GROUP BY uses PdxGroupBy and JOIN
+ * uses PdxHashJoin. Scans and aggregates skip blocks ruled out by the
+ * table's zone map or Bloom filter sidecar, when there is one (see
+ * PdxZoneMap and PdxBloomFilter). The first full scan of a table without
+ * a zone map writes one for the numeric fields it filters on or
+ * aggregates.
+ * <pre>
+ * SELECT * | item, ...   item: column | COUNT(*) | COUNT|SUM|MIN|MAX|AVG(column)
+ * FROM table [alias] [[INNER] JOIN table [alias] ON column = column]
+ * [WHERE column op constant AND ...]    op: = &lt;&gt; != &lt; &lt;= &gt; &gt;= | IS [NOT] NULL
+ * [GROUP BY column, ...]
+ * [ORDER BY item [ASC|DESC], ...]
+ * [LIMIT n]
+ * </pre>
+ * A table name is the file name without .db, case insensitive. Columns may
+ * be qualified with a table name or alias and quoted as "name" or [name].
+ * Strings, dates ('d-m-yyyy' or 'yyyy-mm-dd') and times ('h:m:s') are
+ * written in single quotes. Aggregates other than COUNT(*) need a numeric
+ * field and can not be combined with a join.
+ *
+ * @author Robin van Emden
+ */
+public class PdxQuery {
+    private static final int NONE = 0;
+    private static final int COUNT = 1;
+    private static final int SUM = 2;
+    private static final int MIN = 3;
+    private static final int MAX = 4;
+    private static final int AVG = 5;
+    private static final String[] AGGREGATES = {"", "COUNT", "SUM", "MIN", "MAX", "AVG"};
+    private static final String[] KEYWORDS = {"SELECT", "FROM", "AS", "INNER", "JOIN", "ON", "WHERE",
+            "AND", "IS", "NOT", "NULL", "GROUP", "ORDER", "BY", "ASC", "DESC", "LIMIT"};
+    private static final String[] OPERATORS = {"=", "<>", "<", "<=", ">", ">="};
+
+    private final List<Item> items = new ArrayList<Item>();
+    private final List<Condition> where = new ArrayList<Condition>();
+    private final List<Column> groupBy = new ArrayList<Column>();
+    private final List<Item> orderBy = new ArrayList<Item>();
+    private final List<Boolean> descending = new ArrayList<Boolean>();
+    private String[] tables;
+    private String[] aliases;
+    private Column joinLeft;
+    private Column joinRight;
+    private int limit = -1;
+
+    /**
+     * Column as written in the query, resolved against the tables when run.
+     */
+    private static final class Column {
+        final String qualifier;
+        final String name;
+        int table;
+        int field;
+
+        Column(String qualifier, String name) {
+            this.qualifier = qualifier;
+            this.name = name;
+        }
+    }
+
+    private static final class Item {
+        final int aggregate;
+        final Column column;
+        int type;
+
+        Item(int aggregate, Column column) {
+            this.aggregate = aggregate;
+            this.column = column;
+        }
+
+        String label() {
+            if (aggregate == NONE) return column.name;
+            return AGGREGATES[aggregate] + "(" + (column == null ? "*" : column.name) + ")";
+        }
+
+        boolean same(Item other) {
+            if (aggregate != other.aggregate) return false;
+            if (column == null || other.column == null) return column == other.column;
+            return column.table == other.column.table && column.field == other.column.field;
+        }
+    }
+
+    private static final class Condition {
+        final Column column;
+        final int op;
+        final String literal;
+
+        Condition(Column column, int op, String literal) {
+            this.column = column;
+            this.op = op;
+            this.literal = literal;
+        }
+    }
+
+    private PdxQuery() {
+    }
+
+    /**
+     * Parses a query.
+     *
+     * @param sql query text
+     * @return the query, ready to run against a directory
+     * @throws IllegalArgumentException on a syntax error
+     */
+    public static PdxQuery parse(String sql) {
+        PdxQuery query = new PdxQuery();
+        new Parser(sql).query(query);
+        return query;
+    }
+
+    /**
+     * Labels of the result columns.
+     *
+     * @param directory directory holding the tables
+     * @throws IOException
+     */
+    public String[] getColumnLabels(File directory) throws IOException {
+        PdxFile[] files = open(directory);
+        try {
+            List<Item> select = resolve(files);
+            String[] labels = new String[select.size()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = select.get(i).label();
+            }
+            return labels;
+        } finally {
+            close(files);
+        }
+    }
+
+    /**
+     * Runs the query.
+     *
+     * @param directory directory holding the tables
+     * @param consumer  receives the result rows, indexed from 0 like the column labels
+     * @throws IOException
+     */
+    public void run(File directory, Consumer<String[]> consumer) throws IOException {
+        PdxFile[] files = open(directory);
+        try {
+            List<Item> select = resolve(files);
+            PdxRecordFilter[] filters = new PdxRecordFilter[files.length];
+            for (int t = 0; t < files.length; t++) {
+                filters[t] = filter(files[t].getHeader(), t);
+            }
+            boolean aggregated = !groupBy.isEmpty();
+            for (Item item : select) {
+                if (item.aggregate != NONE) aggregated = true;
+            }
+            if (files.length == 2) {
+                if (aggregated) {
+                    throw new IllegalArgumentException("GROUP BY and aggregates can not be combined with JOIN");
+                }
+                join(files, filters, select, consumer);
+            } else if (!groupBy.isEmpty()) {
+                group(files[0], filters[0], select, consumer);
+            } else if (aggregated) {
+                aggregate(files[0], filters[0], select, consumer);
+            } else if (!orderBy.isEmpty()) {
+                sort(files[0], filters[0], select, consumer);
+            } else {
+                scan(files[0], filters[0], select, consumer);
+            }
+        } finally {
+            close(files);
+        }
+    }
+
+    private PdxFile[] open(File directory) throws IOException {
+        PdxFile[] files = new PdxFile[tables.length];
+        try {
+            for (int t = 0; t < tables.length; t++) {
+                files[t] = new PdxFile(find(directory, tables[t]));
+            }
+        } catch (IOException e) {
+            close(files);
+            throw e;
+        }
+        return files;
+    }
+
+    private static void close(PdxFile[] files) throws IOException {
+        for (PdxFile file : files) {
+            if (file != null) file.close();
+        }
+    }
+
+    private static File find(File directory, String table) throws FileNotFoundException {
+        String name = table.indexOf('.') < 0 ? table + ".db" : table;
+        File file = new File(directory, name);
+        if (file.isFile()) return file;
+        File[] candidates = directory.listFiles();
+        if (candidates != null) {
+            for (File candidate : candidates) {
+                if (candidate.isFile() && candidate.getName().equalsIgnoreCase(name)) return candidate;
+            }
+        }
+        throw new FileNotFoundException("Table " + table + " not found in " + directory);
+    }
+
+    /**
+     * Binds the columns of the query to table and field numbers.
+     *
+     * @return the select list, with * expanded
+     */
+    private List<Item> resolve(PdxFile[] files) {
+        List<Item> select = new ArrayList<Item>();
+        if (items.isEmpty()) {
+            for (int t = 0; t < files.length; t++) {
+                PdxHeader header = files[t].getHeader();
+                for (int f = 1; f <= header.getNumFields(); f++) {
+                    Column column = new Column(null, header.getFieldName(f));
+                    column.table = t;
+                    column.field = f;
+                    select.add(new Item(NONE, column));
+                }
+            }
+        } else {
+            select.addAll(items);
+        }
+        for (Item item : select) {
+            type(files, item);
+        }
+        for (Item item : orderBy) {
+            type(files, item);
+        }
+        for (Condition condition : where) {
+            resolve(files, condition.column);
+        }
+        for (Column column : groupBy) {
+            resolve(files, column);
+        }
+        if (files.length == 2) {
+            resolve(files, joinLeft);
+            resolve(files, joinRight);
+            if (joinLeft.table == joinRight.table) {
+                throw new IllegalArgumentException("JOIN condition must compare columns of both tables");
+            }
+        }
+        return select;
+    }
+
+    private void type(PdxFile[] files, Item item) {
+        if (item.column == null) {
+            item.type = PdxReader.pxfLong;
+            return;
+        }
+        resolve(files, item.column);
+        int type = files[item.column.table].getHeader().getFieldType(item.column.field);
+        if (item.aggregate != NONE && !PdxFieldCodec.isNumeric(type)) {
+            throw new IllegalArgumentException(item.label() + ": " + item.column.name + " is not numeric");
+        }
+        switch (item.aggregate) {
+            case COUNT:
+                item.type = PdxReader.pxfLong;
+                break;
+            case AVG:
+                item.type = PdxReader.pxfNumber;
+                break;
+            case SUM:
+                item.type = type == PdxReader.pxfDate || type == PdxReader.pxfTime ? PdxReader.pxfNumber : type;
+                break;
+            default:
+                item.type = type;
+                break;
+        }
+    }
+
+    private void resolve(PdxFile[] files, Column column) {
+        column.field = 0;
+        for (int t = 0; t < files.length; t++) {
+            if (column.qualifier != null && !column.qualifier.equalsIgnoreCase(aliases[t])
+                    && !column.qualifier.equalsIgnoreCase(tables[t])) {
+                continue;
+            }
+            int field = files[t].getHeader().getFieldNumber(column.name);
+            if (field == 0) continue;
+            if (column.field != 0) {
+                throw new IllegalArgumentException("Column " + column.name + " is ambiguous");
+            }
+            column.table = t;
+            column.field = field;
+        }
+        if (column.field == 0) {
+            throw new IllegalArgumentException("Unknown column " + column.name);
+        }
+    }
+
+    private List<PdxPredicate> predicates(PdxHeader header, int table) {
+        List<PdxPredicate> predicates = new ArrayList<PdxPredicate>();
+        for (Condition condition : where) {
+            if (condition.column.table == table) {
+                predicates.add(new PdxPredicate(header, condition.column.field, condition.op, condition.literal));
+            }
+        }
+        return predicates;
+    }
+
+    private PdxRecordFilter filter(PdxHeader header, int table) {
+        final List<PdxPredicate> predicates = predicates(header, table);
+        if (predicates.isEmpty()) return null;
+        if (predicates.size() == 1) return predicates.get(0);
+        return new PdxRecordFilter() {
+            public boolean accept(byte[] data, int recordOffset) {
+                for (PdxPredicate predicate : predicates) {
+                    if (!predicate.accept(data, recordOffset)) return false;
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Collects a zone map for the numeric fields the query filters on or
+     * aggregates in the first table, when the table has no zone map built
+     * from its current state.
+     *
+     * @return null if there is nothing to collect
+     */
+    private PdxZoneMap.Builder zones(PdxFile file, List<Item> select) throws IOException {
+        PdxHeader header = file.getHeader();
+        List<Integer> fields = new ArrayList<Integer>();
+        for (Condition condition : where) {
+            if (condition.column.table == 0) fields.add(condition.column.field);
+        }
+        for (Item item : select) {
+            if (item.aggregate != NONE && item.column != null) fields.add(item.column.field);
+        }
+        int[] numeric = new int[fields.size()];
+        int n = 0;
+        for (int field : fields) {
+            if (PdxFieldCodec.isNumeric(header.getFieldType(field))) numeric[n++] = field;
+        }
+        if (n == 0 || PdxZoneMap.isCurrent(file)) return null;
+        return new PdxZoneMap.Builder(file, Arrays.copyOf(numeric, n));
+    }
+
+    /**
+     * Blocks of the first table to read. When the table has a valid zone
+     * map or Bloom filter sidecar, blocks that can not hold a record passing
+     * the WHERE clause are left out.
+     */
+    private PdxBlockChain blocks(PdxFile file) throws IOException {
+        List<PdxPredicate> predicates = predicates(file.getHeader(), 0);
+        if (predicates.isEmpty()) return file.blockChain(true);
+        PdxZoneMap zoneMap = PdxZoneMap.openExisting(file);
+        PdxBloomFilter bloomFilter = PdxBloomFilter.openExisting(file);
+        if (zoneMap == null && bloomFilter == null) return file.blockChain(true);
+        int numBlocks = zoneMap != null ? zoneMap.getNumBlocks() : bloomFilter.getNumBlocks();
+        if (zoneMap != null && bloomFilter != null && bloomFilter.getNumBlocks() != numBlocks) {
+            bloomFilter = null;
+        }
+        int[] blocks = new int[numBlocks];
+        int n = 0;
+        for (int b = 0; b < numBlocks; b++) {
+            boolean match = true;
+            for (PdxPredicate predicate : predicates) {
+                if (zoneMap != null) match &= predicate.mayMatch(zoneMap, b);
+                if (bloomFilter != null) match &= predicate.mayMatch(bloomFilter, b);
+            }
+            if (match) blocks[n++] = zoneMap != null ? zoneMap.getBlock(b) : bloomFilter.getBlock(b);
+        }
+        return new PdxBlockChain(file, Arrays.copyOf(blocks, n), true);
+    }
+
+    private static String[] project(List<Item> select, String[] row) {
+        String[] out = new String[select.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = row[select.get(i).column.field];
+        }
+        return out;
+    }
+
+    /**
+     * Plain scan, stops reading blocks once the limit is reached.
+     */
+    private void scan(PdxFile file, PdxRecordFilter filter, List<Item> select, Consumer<String[]> consumer)
+            throws IOException {
+        PdxRecordDecoder decoder = new PdxRecordDecoder(file.getHeader());
+        long remaining = limit < 0 ? Long.MAX_VALUE : limit;
+        PdxZoneMap.Builder zones = zones(file, select);
+        PdxBlockChain chain = zones != null ? file.blockChain(true) : blocks(file);
+        try {
+            while (remaining > 0 && chain.hasNext()) {
+                PdxBlock block = chain.next();
+                if (zones != null) zones.add(block);
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords() && remaining > 0; i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (filter != null && !filter.accept(data, recordOffset)) continue;
+                    String[] out = new String[select.size()];
+                    for (int c = 0; c < out.length; c++) {
+                        out[c] = decoder.decodeField(select.get(c).column.field, data, recordOffset);
+                    }
+                    consumer.accept(out);
+                    remaining--;
+                }
+            }
+            // a scan cut short by the limit has not seen every block
+            if (zones != null && !chain.hasNext()) zones.save();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+    }
+
+    private void sort(PdxFile file, PdxRecordFilter filter, final List<Item> select, final Consumer<String[]> consumer)
+            throws IOException {
+        int[] fields = new int[orderBy.size()];
+        boolean[] desc = new boolean[orderBy.size()];
+        for (int i = 0; i < fields.length; i++) {
+            if (orderBy.get(i).aggregate != NONE) {
+                throw new IllegalArgumentException("ORDER BY " + orderBy.get(i).label() + " needs GROUP BY");
+            }
+            fields[i] = orderBy.get(i).column.field;
+            desc[i] = descending.get(i);
+        }
+        PdxSort sort = new PdxSort(file, fields, desc);
+        sort.setFilter(filter);
+        if (limit >= 0) {
+            for (String[] row : sort.top(limit)) {
+                consumer.accept(project(select, row));
+            }
+        } else {
+            sort.sort(new Consumer<String[]>() {
+                public void accept(String[] row) {
+                    consumer.accept(project(select, row));
+                }
+            });
+        }
+    }
+
+    private void group(PdxFile file, PdxRecordFilter filter, List<Item> select, Consumer<String[]> consumer)
+            throws IOException {
+        int[] keyFields = new int[groupBy.size()];
+        for (int k = 0; k < keyFields.length; k++) {
+            keyFields[k] = groupBy.get(k).field;
+        }
+        List<Integer> valueFields = new ArrayList<Integer>();
+        int[] source = new int[select.size()];
+        for (int i = 0; i < source.length; i++) {
+            Item item = select.get(i);
+            if (item.aggregate == NONE) {
+                source[i] = -1;
+                for (int k = 0; k < keyFields.length; k++) {
+                    if (keyFields[k] == item.column.field) source[i] = k;
+                }
+                if (source[i] < 0) {
+                    throw new IllegalArgumentException("Column " + item.column.name + " is not in GROUP BY");
+                }
+            } else if (item.column != null) {
+                if (!valueFields.contains(item.column.field)) valueFields.add(item.column.field);
+                source[i] = valueFields.indexOf(item.column.field);
+            }
+        }
+        int[] values = new int[valueFields.size()];
+        for (int v = 0; v < values.length; v++) {
+            values[v] = valueFields.get(v);
+        }
+        PdxGroupBy groupBy = new PdxGroupBy(file, keyFields, values);
+        groupBy.setFilter(filter);
+        List<String[]> rows = new ArrayList<String[]>();
+        for (PdxGroup group : groupBy.run()) {
+            String[] out = new String[select.size()];
+            for (int i = 0; i < out.length; i++) {
+                Item item = select.get(i);
+                if (item.aggregate == NONE) {
+                    out[i] = group.getKey()[source[i]];
+                } else if (item.column == null) {
+                    out[i] = "" + group.getCount();
+                } else {
+                    out[i] = aggregate(item, group.getAggregate(source[i]));
+                }
+            }
+            rows.add(out);
+        }
+        emit(select, rows, consumer);
+    }
+
+    private void aggregate(PdxFile file, PdxRecordFilter filter, List<Item> select, Consumer<String[]> consumer)
+            throws IOException {
+        PdxHeader header = file.getHeader();
+        PdxAggregate[] aggregates = new PdxAggregate[select.size()];
+        int[] fields = new int[select.size()];
+        for (int i = 0; i < aggregates.length; i++) {
+            Item item = select.get(i);
+            if (item.aggregate == NONE) {
+                throw new IllegalArgumentException("Column " + item.column.name + " needs GROUP BY");
+            }
+            aggregates[i] = new PdxAggregate();
+            fields[i] = item.column == null ? 0 : item.column.field;
+        }
+        PdxZoneMap.Builder zones = zones(file, select);
+        PdxBlockChain chain = zones != null ? file.blockChain(true) : blocks(file);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                if (zones != null) zones.add(block);
+                byte[] data = block.getData();
+                if (filter == null) {
+                    for (int i = 0; i < aggregates.length; i++) {
+                        int field = fields[i];
+                        if (field == 0) {
+                            for (int r = 0; r < block.getNumRecords(); r++) aggregates[i].add(0);
+                        } else {
+                            aggregates[i].accumulate(header.getFieldType(field), data,
+                                    block.getRecordOffset(0) + header.getFieldOffset(field),
+                                    block.getNumRecords(), header.getRecordSize());
+                        }
+                    }
+                    continue;
+                }
+                for (int r = 0; r < block.getNumRecords(); r++) {
+                    int recordOffset = block.getRecordOffset(r);
+                    if (!filter.accept(data, recordOffset)) continue;
+                    for (int i = 0; i < aggregates.length; i++) {
+                        int field = fields[i];
+                        aggregates[i].add(field == 0 ? 0 : PdxFieldCodec.decodeNumber(header.getFieldType(field),
+                                data, recordOffset + header.getFieldOffset(field)));
+                    }
+                }
+            }
+            if (zones != null) zones.save();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        String[] out = new String[select.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = aggregate(select.get(i), aggregates[i]);
+        }
+        if (limit != 0) consumer.accept(out);
+    }
+
+    private void join(PdxFile[] files, PdxRecordFilter[] filters, final List<Item> select, final Consumer<String[]> consumer)
+            throws IOException {
+        Column leftKey = joinLeft.table == 0 ? joinLeft : joinRight;
+        Column rightKey = joinLeft.table == 0 ? joinRight : joinLeft;
+        final List<Integer> leftFields = new ArrayList<Integer>();
+        final List<Integer> rightFields = new ArrayList<Integer>();
+        for (Item item : select) {
+            List<Integer> fields = item.column.table == 0 ? leftFields : rightFields;
+            if (!fields.contains(item.column.field)) fields.add(item.column.field);
+        }
+        final PdxHashJoin join = new PdxHashJoin(files[0], leftKey.field, files[1], rightKey.field);
+        join.setLeftProjection(toArray(leftFields));
+        join.setRightProjection(toArray(rightFields));
+        join.setLeftFilter(filters[0]);
+        join.setRightFilter(filters[1]);
+        final int[] positions = new int[select.size()];
+        for (int i = 0; i < positions.length; i++) {
+            Column column = select.get(i).column;
+            positions[i] = column.table == 0
+                    ? 1 + leftFields.indexOf(column.field)
+                    : 1 + leftFields.size() + rightFields.indexOf(column.field);
+        }
+        if (orderBy.isEmpty()) {
+            // stream the rows, and stop probing once the limit is reached
+            if (limit == 0) return;
+            join.run(new Consumer<String[]>() {
+                private int emitted;
+
+                public void accept(String[] row) {
+                    if (limit >= 0 && emitted >= limit) return;
+                    consumer.accept(joined(row, positions));
+                    if (++emitted == limit) join.stop();
+                }
+            });
+            return;
+        }
+        final List<String[]> rows = new ArrayList<String[]>();
+        join.run(new Consumer<String[]>() {
+            public void accept(String[] row) {
+                rows.add(joined(row, positions));
+            }
+        });
+        emit(select, rows, consumer);
+    }
+
+    /**
+     * Picks the selected columns from a joined row.
+     */
+    private static String[] joined(String[] row, int[] positions) {
+        String[] out = new String[positions.length];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = row[positions[i]];
+        }
+        return out;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * Applies ORDER BY and LIMIT to rows held in memory.
+     */
+    private void emit(List<Item> select, List<String[]> rows, Consumer<String[]> consumer) {
+        if (!orderBy.isEmpty()) {
+            final int[] columns = new int[orderBy.size()];
+            final int[] types = new int[orderBy.size()];
+            final boolean[] desc = new boolean[orderBy.size()];
+            for (int o = 0; o < columns.length; o++) {
+                columns[o] = -1;
+                for (int i = 0; i < select.size() && columns[o] < 0; i++) {
+                    if (select.get(i).same(orderBy.get(o))) columns[o] = i;
+                }
+                if (columns[o] < 0) {
+                    throw new IllegalArgumentException("ORDER BY " + orderBy.get(o).label() + " is not selected");
+                }
+                types[o] = select.get(columns[o]).type;
+                desc[o] = descending.get(o);
+            }
+            Collections.sort(rows, new Comparator<String[]>() {
+                public int compare(String[] a, String[] b) {
+                    for (int o = 0; o < columns.length; o++) {
+                        int c = compareValues(types[o], a[columns[o]], b[columns[o]]);
+                        if (c != 0) return desc[o] ? -c : c;
+                    }
+                    return 0;
+                }
+            });
+        }
+        int n = limit < 0 ? rows.size() : Math.min(limit, rows.size());
+        for (int i = 0; i < n; i++) {
+            consumer.accept(rows.get(i));
+        }
+    }
+
+    /**
+     * Compares two decoded values of a field type, blanks first.
+     */
+    private static int compareValues(int type, String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) return a.isEmpty() ? (b.isEmpty() ? 0 : -1) : 1;
+        if (type == PdxReader.pxfAlpha || !(PdxFieldCodec.isNumeric(type) || type == PdxReader.pxfLogical)) {
+            return a.compareTo(b);
+        }
+        return Double.compare(PdxPredicate.parseNumber(type, a), PdxPredicate.parseNumber(type, b));
+    }
+
+    /**
+     * Formats an aggregate like the decoded values of its field type.
+     */
+    private static String aggregate(Item item, PdxAggregate aggregate) {
+        if (item.aggregate == COUNT) {
+            return "" + (item.column == null ? aggregate.getCount() : aggregate.getCountNonNull());
+        }
+        double v;
+        switch (item.aggregate) {
+            case SUM:
+                if (aggregate.getCountNonNull() == 0) return "";
+                v = aggregate.getSum();
+                break;
+            case MIN:
+                v = aggregate.getMin();
+                break;
+            case MAX:
+                v = aggregate.getMax();
+                break;
+            default:
+                v = aggregate.getAvg();
+                break;
+        }
+        if (v != v) return "";
+        switch (item.type) {
+            case PdxReader.pxfDate: {
+                BigDate date = new BigDate();
+                date.set((int) v - 719163);
+                return date.getDD() + "-" + date.getMM() + "-" + date.getYYYY();
+            }
+            case PdxReader.pxfTime: {
+                int seconds = (int) v / 1000;
+                return "" + seconds / 3600 + ":" + seconds % 3600 / 60 + ":" + seconds % 60;
+            }
+            case PdxReader.pxfCurrency:
+                return "$" + v;
+            case PdxReader.pxfShort:
+            case PdxReader.pxfLong:
+            case PdxReader.pxfAutoInc:
+            case PdxReader.pxfTimestamp:
+                return "" + (long) v;
+            default:
+                return "" + v;
+        }
+    }
+
+    /**
+     * Recursive descent parser, fills in a PdxQuery.
+     */
+    private static final class Parser {
+        private static final int WORD = 0;
+        private static final int NAME = 1;
+        private static final int STRING = 2;
+        private static final int NUMBER = 3;
+        private static final int SYMBOL = 4;
+        private static final int END = 5;
+
+        private final List<Integer> kinds = new ArrayList<Integer>();
+        private final List<String> texts = new ArrayList<String>();
+        private int pos;
+
+        Parser(String sql) {
+            int i = 0;
+            while (i < sql.length()) {
+                char c = sql.charAt(i);
+                if (Character.isWhitespace(c)) {
+                    i++;
+                } else if (Character.isLetter(c) || c == '_') {
+                    int start = i;
+                    while (i < sql.length() && (Character.isLetterOrDigit(sql.charAt(i)) || sql.charAt(i) == '_')) i++;
+                    add(WORD, sql.substring(start, i));
+                } else if (Character.isDigit(c) || (c == '.' && i + 1 < sql.length() && Character.isDigit(sql.charAt(i + 1)))) {
+                    int start = i;
+                    while (i < sql.length() && (Character.isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) i++;
+                    add(NUMBER, sql.substring(start, i));
+                } else if (c == '\'' || c == '"' || c == '[') {
+                    char close = c == '[' ? ']' : c;
+                    StringBuilder sb = new StringBuilder();
+                    i++;
+                    while (true) {
+                        if (i >= sql.length()) throw error("Unterminated " + c);
+                        if (sql.charAt(i) == close) {
+                            if (close != ']' && i + 1 < sql.length() && sql.charAt(i + 1) == close) {
+                                sb.append(close);
+                                i += 2;
+                                continue;
+                            }
+                            i++;
+                            break;
+                        }
+                        sb.append(sql.charAt(i++));
+                    }
+                    add(c == '\'' ? STRING : NAME, sb.toString());
+                } else if ((c == '<' || c == '>' || c == '!') && i + 1 < sql.length()
+                        && (sql.charAt(i + 1) == '=' || (c == '<' && sql.charAt(i + 1) == '>'))) {
+                    add(SYMBOL, c == '!' ? "<>" : sql.substring(i, i + 2));
+                    i += 2;
+                } else if ("*,().=<>-;".indexOf(c) >= 0) {
+                    add(SYMBOL, String.valueOf(c));
+                    i++;
+                } else {
+                    throw error("Unexpected character '" + c + "'");
+                }
+            }
+            add(END, "end of query");
+        }
+
+        private void add(int kind, String text) {
+            kinds.add(kind);
+            texts.add(text);
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException("Query syntax: " + message);
+        }
+
+        private boolean isKeyword(String word) {
+            return kinds.get(pos) == WORD && texts.get(pos).equalsIgnoreCase(word);
+        }
+
+        private boolean isSymbol(String symbol) {
+            return kinds.get(pos) == SYMBOL && texts.get(pos).equals(symbol);
+        }
+
+        private boolean accept(String token) {
+            if (isKeyword(token) || isSymbol(token)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String token) {
+            if (!accept(token)) throw error("expected " + token + " instead of " + texts.get(pos));
+        }
+
+        private boolean isReserved() {
+            for (String keyword : KEYWORDS) {
+                if (isKeyword(keyword)) return true;
+            }
+            return false;
+        }
+
+        private String identifier() {
+            if (kinds.get(pos) == NAME || (kinds.get(pos) == WORD && !isReserved())) {
+                return texts.get(pos++);
+            }
+            throw error("expected a name instead of " + texts.get(pos));
+        }
+
+        private Column column() {
+            String name = identifier();
+            if (accept(".")) return new Column(name, identifier());
+            return new Column(null, name);
+        }
+
+        private Item item() {
+            if (kinds.get(pos) == WORD && kinds.get(pos + 1) == SYMBOL && texts.get(pos + 1).equals("(")) {
+                for (int a = COUNT; a <= AVG; a++) {
+                    if (accept(AGGREGATES[a])) {
+                        expect("(");
+                        Column column = null;
+                        if (a != COUNT || !accept("*")) column = column();
+                        expect(")");
+                        return new Item(a, column);
+                    }
+                }
+                throw error("unknown function " + texts.get(pos));
+            }
+            return new Item(NONE, column());
+        }
+
+        private void table(List<String> tables, List<String> aliases) {
+            String table = identifier();
+            tables.add(table);
+            if (accept("AS")) {
+                aliases.add(identifier());
+            } else if (kinds.get(pos) == NAME || (kinds.get(pos) == WORD && !isReserved())) {
+                aliases.add(identifier());
+            } else {
+                aliases.add(table);
+            }
+        }
+
+        private String literal() {
+            boolean negative = accept("-");
+            int kind = kinds.get(pos);
+            if (kind == NUMBER || (kind == STRING && !negative)) {
+                return (negative ? "-" : "") + texts.get(pos++);
+            }
+            throw error("expected a constant instead of " + texts.get(pos));
+        }
+
+        void query(PdxQuery query) {
+            expect("SELECT");
+            if (!accept("*")) {
+                do {
+                    query.items.add(item());
+                } while (accept(","));
+            }
+            expect("FROM");
+            List<String> tables = new ArrayList<String>();
+            List<String> aliases = new ArrayList<String>();
+            table(tables, aliases);
+            if (accept("INNER")) {
+                expect("JOIN");
+                table(tables, aliases);
+            } else if (accept("JOIN")) {
+                table(tables, aliases);
+            }
+            if (tables.size() == 2) {
+                expect("ON");
+                query.joinLeft = column();
+                expect("=");
+                query.joinRight = column();
+            }
+            query.tables = tables.toArray(new String[0]);
+            query.aliases = aliases.toArray(new String[0]);
+            if (accept("WHERE")) {
+                do {
+                    Column column = column();
+                    if (accept("IS")) {
+                        int op = accept("NOT") ? PdxPredicate.NOT_NULL : PdxPredicate.IS_NULL;
+                        expect("NULL");
+                        query.where.add(new Condition(column, op, null));
+                        continue;
+                    }
+                    int op = -1;
+                    for (int o = 0; o < OPERATORS.length && op < 0; o++) {
+                        if (accept(OPERATORS[o])) op = o;
+                    }
+                    if (op < 0) throw error("expected an operator instead of " + texts.get(pos));
+                    query.where.add(new Condition(column, op, literal()));
+                } while (accept("AND"));
+            }
+            if (accept("GROUP")) {
+                expect("BY");
+                do {
+                    query.groupBy.add(column());
+                } while (accept(","));
+            }
+            if (accept("ORDER")) {
+                expect("BY");
+                do {
+                    query.orderBy.add(item());
+                    boolean desc = accept("DESC");
+                    if (!desc) accept("ASC");
+                    query.descending.add(desc);
+                } while (accept(","));
+            }
+            if (accept("LIMIT")) {
+                if (kinds.get(pos) != NUMBER) throw error("expected a number after LIMIT");
+                try {
+                    query.limit = Integer.parseInt(texts.get(pos++));
+                } catch (NumberFormatException e) {
+                    throw error("bad LIMIT " + texts.get(pos - 1));
+                }
+            }
+            accept(";");
+            if (kinds.get(pos) != END) throw error("unexpected " + texts.get(pos));
+        }
+    }
+}
@@ -17,28 +17,31 @@
 package nl.pwy.pdxreader;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 
 /**
  * @author Robin van Emden
  */
 public class PdxReader {
-    private static final byte pxfAlpha = 1;
-    private static final byte pxfDate = 2;
-    private static final byte pxfShort = 3;
-    private static final byte pxfLong = 4;
-    private static final byte pxfCurrency = 5;
-    private static final byte pxfNumber = 6;
-    private static final byte pxfLogical = 9;
-    private static final byte pxfMemoBLOb = 12;
-    private static final byte pxfBLOb = 13;
-    private static final byte pxfFmtMemoBLOb = 14;
-    private static final byte pxfOLE = 15;
-    private static final byte pxfGraphic = 16;
-    private static final byte pxfTime = 20;
-    private static final byte pxfTimestamp = 21;
-    private static final byte pxfAutoInc = 22;
-    private static final byte pxfBCD = 23;
-    private static final byte pxfBytes = 24;
+    static final byte pxfAlpha = 1;
+    static final byte pxfDate = 2;
+    static final byte pxfShort = 3;
+    static final byte pxfLong = 4;
+    static final byte pxfCurrency = 5;
+    static final byte pxfNumber = 6;
+    static final byte pxfLogical = 9;
+    static final byte pxfMemoBLOb = 12;
+    static final byte pxfBLOb = 13;
+    static final byte pxfFmtMemoBLOb = 14;
+    static final byte pxfOLE = 15;
+    static final byte pxfGraphic = 16;
+    static final byte pxfTime = 20;
+    static final byte pxfTimestamp = 21;
+    static final byte pxfAutoInc = 22;
+    static final byte pxfBCD = 23;
+    static final byte pxfBytes = 24;
 
     private int recordSize;
     private int headerSize;
@@ -52,7 +55,10 @@ public class PdxReader {
     private int fileData;
     private String[][] tableStringArray;
     private int counterRecords = 1;
-    private final BigDate bDate = new BigDate();
+    private PdxRecordDecoder decoder;
+    private String filename;
+    private int fileVersionID;
+    private PdxHeader header;
 
 
     /**
@@ -61,9 +67,129 @@ public class PdxReader {
      * @param filename
      */
     public PdxReader(String filename) {
+        PdxTableOpenEvent event = new PdxTableOpenEvent();
+        event.begin();
+        this.filename = filename;
         fileToArray(filename);
-        for (int dBlock = 0; dBlock < fileBlocks; dBlock++) {
-            dataBlockReader(dBlock);
+        readBlocks(event);
+    }
+
+    /**
+     * Constructor, reads the datablocks of a Paradox DB file with
+     * asynchronous reads, keeping up to prefetchDepth blocks in flight
+     * while the current one is decoded. For files on high latency storage,
+     * where reading the whole file before decoding leaves the CPU idle;
+     * see PdxAsyncBlockReader.
+     *
+     * @param filename
+     * @param prefetchDepth number of block reads kept in flight
+     * @throws IOException if the file can not be read or holds no valid header
+     */
+    public PdxReader(String filename, int prefetchDepth) throws IOException {
+        PdxTableOpenEvent event = new PdxTableOpenEvent();
+        event.begin();
+        this.filename = filename;
+        int blocks = 0;
+        PdxFile file = new PdxFile(filename);
+        try {
+            headerReader(file.getHeader());
+            PdxAsyncBlockReader reader = file.asyncBlockReader(prefetchDepth);
+            try {
+                while (reader.hasNext()) {
+                    PdxBlock block = reader.next();
+                    dataBlockReader(block.getBlockNumber(), block.getData(), 0);
+                    reader.release(block);
+                    blocks++;
+                }
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } finally {
+                reader.close();
+            }
+        } finally {
+            file.close();
+        }
+        commitOpen(event, headerSize + (long) blocks * header.getBlockSize(), blocks);
+    }
+
+    /**
+     * Constructor, reads a complete PDX table from a stream, e.g. a zip
+     * entry. The stream is read to its end but not closed.
+     *
+     * @param in
+     * @throws IOException if the stream can not be read or holds no valid header
+     */
+    public PdxReader(InputStream in) throws IOException {
+        PdxTableOpenEvent event = new PdxTableOpenEvent();
+        event.begin();
+        bytesToArray(in.readAllBytes());
+        readBlocks(event);
+    }
+
+    /**
+     * Constructor, reads a complete PDX table from a channel, e.g. a pipe.
+     * The channel is read to its end but not closed.
+     *
+     * @param channel
+     * @throws IOException if the channel can not be read or holds no valid header
+     */
+    public PdxReader(ReadableByteChannel channel) throws IOException {
+        this(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Constructor, decodes a PDX table held in the remaining bytes of a
+     * buffer. The position of the buffer is not changed.
+     *
+     * @param buffer
+     * @throws IOException if the buffer holds no valid header
+     */
+    public PdxReader(ByteBuffer buffer) throws IOException {
+        PdxTableOpenEvent event = new PdxTableOpenEvent();
+        event.begin();
+        byte[] bytes;
+        if (buffer.hasArray() && buffer.arrayOffset() + buffer.position() == 0
+                && buffer.remaining() == buffer.array().length) {
+            bytes = buffer.array();
+        } else {
+            bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes);
+        }
+        bytesToArray(bytes);
+        readBlocks(event);
+    }
+
+    private void bytesToArray(byte[] bytes) throws IOException {
+        data_in = bytes;
+        headerReader();
+        if (header == null) {
+            throw new IOException("No valid PDX header");
+        }
+    }
+
+    /**
+     * Decodes the datablocks along the chain from firstBlock
+     *
+     * @param event open event, begun by the constructor
+     */
+    private void readBlocks(PdxTableOpenEvent event) {
+        int blocks = 0;
+        int dBlock = header != null ? header.getFirstBlock() : 0;
+        while (dBlock > 0 && dBlock <= fileBlocks && blocks < fileBlocks) {
+            dBlock = dataBlockReader(dBlock);
+            blocks++;
+        }
+        commitOpen(event, data_in != null ? data_in.length : 0, blocks);
+    }
+
+    private void commitOpen(PdxTableOpenEvent event, long bytes, int blocks) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.bytes = bytes;
+            event.recordCount = numRecords;
+            event.blockCount = blocks;
+            event.commit();
         }
     }
 
@@ -78,10 +204,7 @@ public class PdxReader {
         File file;
         FileInputStream file_in = null;
         try {
-            file = new File(System.getProperty("user.dir") + File.separator + filename);
-            if (!file.exists()) {
-                file = new File(filename);
-            }
+            file = PdxFile.resolve(filename);
             file_in = new FileInputStream(file);
             int size = (int) file.length();
             data_in = new byte[size];
@@ -102,401 +225,87 @@ public class PdxReader {
      * Reads PDX header
      */
     private void headerReader() {
-        LEDataInputStream array_in = new LEDataInputStream(new ByteArrayInputStream(data_in));
+        headerReader(null);
+    }
 
+    /**
+     * Takes over a parsed header, or parses the one in data_in
+     */
+    private void headerReader(PdxHeader parsed) {
+        PdxHeaderParsedEvent event = new PdxHeaderParsedEvent();
+        event.begin();
         try {
-            recordSize = array_in.readUnsignedShort();
-            headerSize = array_in.readUnsignedShort();
-            int fileType = array_in.readUnsignedByte();
-            maxTableSize = array_in.readUnsignedByte();
-            numRecords = array_in.readInt();
-            int nextBlock = array_in.readUnsignedShort();
-            fileBlocks = array_in.readUnsignedShort();
-            int firstBlock = array_in.readUnsignedShort();
-            int lastBlock = array_in.readUnsignedShort();
-            int unknown12x13 = array_in.readUnsignedShort();
-            int modifiedFlags1 = array_in.readUnsignedByte();
-            int indexFieldNumber = array_in.readUnsignedByte();
-            int primaryIndexWorkspace = array_in.skipBytes(4);
-            int unknownPtr1A = array_in.skipBytes(4);
-            int unknown1Ex20 = array_in.skipBytes(3);
-            numFields = array_in.readShort();
-            int primaryKeyFields = array_in.readShort();
-            int encryption1 = array_in.readInt();
-            int sortOrder = array_in.readUnsignedByte();
-            int modifiedFlags2 = array_in.readUnsignedByte();
-            int unknown2Bx2C = array_in.skipBytes(2);
-            int changeCount1 = array_in.readUnsignedByte();
-            int changeCount2 = array_in.readUnsignedByte();
-            int unknown2F = array_in.readUnsignedByte();
-            int tableNamePtrPtr = array_in.skipBytes(4);
-            int fldInfoPtr = array_in.skipBytes(4);
-            int writeProtected = array_in.readUnsignedByte();
-            int fileVersionID = array_in.readUnsignedByte();
-            int maxBlocks = array_in.readUnsignedShort();
-            int unknown3C = array_in.readUnsignedByte();
-            int auxPasswords = array_in.readUnsignedByte();
-            int unknown3Ex3F = array_in.skipBytes(2);
-            int cryptInfoStartPtr = array_in.skipBytes(4);
-            int cryptInfoEndPtr = array_in.skipBytes(4);
-            int unknown48 = array_in.readUnsignedByte();
-            int autoInc = array_in.readInt();
-            int unknown4Dx4E = array_in.skipBytes(2);
-            int indexUpdateRequired = array_in.readUnsignedByte();
-            int unknown50x54 = array_in.skipBytes(5);
-            int refIntegrity = array_in.readUnsignedByte();
-            int unknown56x57 = array_in.skipBytes(2);
-            byte[] fieldInfo35 = new byte[512];
-            byte[] fieldInfo = new byte[512];
+            header = parsed != null ? parsed : PdxHeader.parse(data_in);
+            decoder = new PdxRecordDecoder(header);
+            recordSize = header.getRecordSize();
+            headerSize = header.getHeaderSize();
+            maxTableSize = header.getMaxTableSize();
+            numRecords = header.getNumRecords();
+            fileBlocks = header.getFileBlocks();
+            numFields = header.getNumFields();
+            fileVersionID = header.getFileVersionID();
+            fType = new int[numFields + 1];
+            fSize = new int[numFields + 1];
             tableStringArray = new String[numFields + 1][numRecords + 2];
-            switch (fileType) {
-                case 1:
-                case 4:
-                case 6:
-                case 7:
-                case 8: {
-                    fSize = new int[numFields + 1];
-                    fType = new int[numFields + 1];
-                    for (int i = 1; i <= numFields; i++) {
-                        fType[i] = array_in.readUnsignedByte();
-                        fSize[i] = array_in.readUnsignedByte();
-                    }
-                    array_in.skipBytes(4);
-                    array_in.skipBytes(numFields * 4);
-                    break;
-                }
-                default: {
-                    if (fileVersionID <= 4) {
-                        fSize = new int[numFields + 1];
-                        fType = new int[numFields + 1];
-                        for (int i = 1; i <= numFields; i++) {
-                            fType[i] = array_in.readUnsignedByte();
-                            fSize[i] = array_in.readUnsignedByte();
-                        }
-                        array_in.skipBytes(83 + (numFields * 4));
-                        StringBuffer sb;
-                        for (int i = 1; i <= numFields; i++) {
-                            int bt = 1;
-                            sb = new StringBuffer();
-                            while (bt != 0) {
-                                bt = array_in.readUnsignedByte();
-                                sb.append((char) bt);
-                            }
-                            tableStringArray[i][1] = sb.toString();
-                        }
-                    } else {
-                        int fileVerID2 = array_in.readShort();
-                        int fileVerID3 = array_in.readShort();
-                        int encryption2 = array_in.readInt();
-                        int fileUpdateTime = array_in.readInt();
-                        int hiFieldID = array_in.readShort();
-                        int hiFieldIDinfo = array_in.readShort();
-                        int sometimesNumFields = array_in.readShort();
-                        int dosCodePage = array_in.readShort();
-                        int unknown6Cx6F = array_in.skipBytes(4);
-                        int changeCount4 = array_in.readShort();
-                        int unknown72x77 = array_in.skipBytes(6);
-                        fSize = new int[numFields + 1];
-                        fType = new int[numFields + 1];
-                        for (int i = 1; i <= numFields; i++) {
-                            fType[i] = array_in.readUnsignedByte();
-                            fSize[i] = array_in.readUnsignedByte();
-                        }
-                        array_in.skipBytes(83 + (numFields * 4));
-                        StringBuffer sb;
-                        for (int i = 1; i <= numFields; i++) {
-                            int bt;
-                            sb = new StringBuffer();
-                            while ((bt = array_in.readUnsignedByte()) != 0) {
-                                sb.append((char) bt);
-                            }
-                            tableStringArray[i][1] = sb.toString();
-                        }
-                    }
-                    break;
-                }
+            for (int i = 1; i <= numFields; i++) {
+                fType[i] = header.getFieldType(i);
+                fSize[i] = header.getFieldSize(i);
+                tableStringArray[i][1] = header.getFieldName(i);
             }
         } catch (IOException ignored) {
-        } finally {
-            if (array_in != null) try {
-                array_in.close();
-            } catch (IOException ignored) {
-            }
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.bytes = headerSize;
+            event.recordCount = numRecords;
+            event.fieldCount = numFields;
+            event.blockCount = fileBlocks;
+            event.fileVersionID = fileVersionID;
+            event.commit();
         }
     }
 
 
     /**
-     * Reads PDX datablocks
+     * Reads PDX datablocks. Blocks are visited along the block chain,
+     * so blocks that are not in use are never decoded.
      *
-     * @param blockNo
+     * @param blockNo block number, the first block is 1
+     * @return the next block in the chain, 0 after the last block
      */
-    private void dataBlockReader(int blockNo) {
-        boolean IsEmpty;
-        DataInputStream array_in = new DataInputStream(new ByteArrayInputStream(data_in));
-        try {
-            array_in.skipBytes(headerSize + (blockNo * (maxTableSize * 1024)));
-            int nextBlock2 = array_in.readUnsignedShort();
-            int blockNumber = array_in.readUnsignedShort();
-            byte[] aByte = new byte[2];
-            array_in.read(aByte);
-            DataInputStream sTemp;
-            LEDataInputStream leTemp = new LEDataInputStream(new ByteArrayInputStream(aByte));
-            short addTemp = leTemp.readShort();
-            int addDataSize = addTemp;
-            int numRecsInBlock = ((addDataSize / recordSize) + 1);
-            leTemp.close();
-            for (int i = 1; i <= numRecsInBlock; i++) {
-                counterRecords++;
-                for (int j = 1; j <= numFields; j++) {
-                    int counterFields = j;
-                    switch (fType[j]) {
-                        case pxfAlpha: {
-                            StringBuffer tableStringBuffer = new StringBuffer();
-                            int[] intBuffer = new int[fSize[j] + 1];
-                            for (int k = 1; k <= fSize[j]; k++) {
-                                intBuffer[k] = array_in.readUnsignedByte();
-                                if (intBuffer[k] != 0) tableStringBuffer.append((char) intBuffer[k]);
-                            }
-                            tableStringArray[counterFields][counterRecords] = tableStringBuffer.toString();
-                            break;
-                        }
-                        case pxfDate: {
-                            byte[] bTemp = new byte[4];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 4; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            int tDateField = sTemp.readInt() - 719163;
-                            bDate.set(tDateField);
-                            tableStringArray[counterFields][counterRecords] = (bDate.getDD() + "-" + bDate.getMM() + "-" + bDate.getYYYY());
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfShort: {
-                            byte[] bTemp = new byte[2];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 2; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            short dTemp = sTemp.readShort();
-                            tableStringArray[counterFields][counterRecords] = ("" + (dTemp));
-                            sTemp.close();
-                            break;
-                        }
-
-                        case pxfLong: {
-                            byte[] bTemp = new byte[4];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 4; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            int dTemp = sTemp.readInt();
-                            tableStringArray[counterFields][counterRecords] = ("" + (dTemp));
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfCurrency: {
-                            byte[] bTemp = new byte[8];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 8; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            double dTemp = sTemp.readDouble();
-                            tableStringArray[counterFields][counterRecords] = ("$" + (dTemp));
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfNumber: {
-                            byte[] bTemp = new byte[8];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 8; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            double dTemp = sTemp.readDouble();
-                            tableStringArray[counterFields][counterRecords] = ("" + (dTemp));
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfLogical: {
-                            int temp = array_in.readUnsignedByte();
-                            if (temp == 0) tableStringArray[counterFields][counterRecords] = ("");
-                            else {
-                                temp ^= 0x80;
-                                tableStringArray[counterFields][counterRecords] = ("" + (temp));
-                            }
-                            break;
-                        }
-                        case pxfMemoBLOb: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfMemoBLOb>");
-                            break;
-                        }
-                        case pxfBLOb: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfBLOb>");
-                            break;
-                        }
-                        case pxfFmtMemoBLOb: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfFmtMemoBLOb>");
-                            break;
-                        }
-                        case pxfOLE: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfOLE>");
-                            break;
-                        }
-                        case pxfGraphic: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfGraphic>");
-                            break;
-                        }
-                        case pxfTime: {
-                            byte[] bTemp = new byte[4];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 4; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            int dTemp = (sTemp.readInt() / 1000);
-                            int uuTemp = (dTemp / 3600);
-                            int mmTemp = ((dTemp - (uuTemp * 3600)) / 60);
-                            int ssTemp = (dTemp - (uuTemp * 3600) - (mmTemp * 60));
-                            tableStringArray[counterFields][counterRecords] = ("" + (uuTemp) + ":" + mmTemp + ":" + ssTemp);
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfTimestamp: {
-                            byte[] bTemp = new byte[8];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 8; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            long dTemp = sTemp.readLong();
-                            tableStringArray[counterFields][counterRecords] = ("" + dTemp);
-                            sTemp.close();
-                            break;
+    private int dataBlockReader(int blockNo) {
+        return dataBlockReader(blockNo, data_in, headerSize + ((blockNo - 1) * (maxTableSize * 1024)));
+    }
 
-                        }
-                        case pxfAutoInc: {
-                            byte[] bTemp = new byte[4];
-                            array_in.read(bTemp);
-                            IsEmpty = true;
-                            for (int m = 0; m < 4; m++) {
-                                if (bTemp[m] != 0) {
-                                    IsEmpty = false;
-                                    break;
-                                }
-                            }
-                            if (IsEmpty) {
-                                tableStringArray[counterFields][counterRecords] = ("");
-                                break;
-                            }
-                            bTemp[0] ^= 0x80;
-                            sTemp = new DataInputStream(new ByteArrayInputStream(bTemp));
-                            int dTemp = sTemp.readInt();
-                            tableStringArray[counterFields][counterRecords] = ("" + (dTemp));
-                            sTemp.close();
-                            break;
-                        }
-                        case pxfBCD: {
-                            int temp = array_in.skipBytes(17);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfBCD>");
-                            break;
-                        }
-                        case pxfBytes: {
-                            int temp = array_in.skipBytes(fSize[j]);
-                            temp ^= 0x80;
-                            tableStringArray[counterFields][counterRecords] = ("<pxfBytes>");
-                            break;
-                        }
-                    }
-                }
-            }
-        } catch (IOException ignored) {
-        } finally {
-            if (array_in != null) try {
-                array_in.close();
-            } catch (IOException ignored) {
+    /**
+     * Decodes a datablock held at blockOffset in data.
+     */
+    private int dataBlockReader(int blockNo, byte[] data, int blockOffset) {
+        PdxBlockDecodedEvent event = new PdxBlockDecodedEvent();
+        event.begin();
+        int nextBlock = 0;
+        if (blockOffset + PdxHeader.BLOCK_HEADER_SIZE <= data.length) {
+            nextBlock = PdxBytes.u16le(data, blockOffset);
+            int addDataSize = PdxBytes.s16le(data, blockOffset + 4);
+            int numRecsInBlock = addDataSize < 0 ? 0
+                    : Math.min((addDataSize / recordSize) + 1, header.getRecordsPerBlock());
+            event.recordCount = numRecsInBlock;
+            int recordOffset = blockOffset + PdxHeader.BLOCK_HEADER_SIZE;
+            for (int i = 1; i <= numRecsInBlock && recordOffset + recordSize <= data.length; i++) {
+                counterRecords++;
+                decoder.decodeInto(data, recordOffset, tableStringArray, counterRecords);
+                recordOffset += recordSize;
             }
         }
-
+        event.end();
+        if (event.shouldCommit()) {
+            event.file = filename;
+            event.blockNumber = blockNo;
+            event.bytes = maxTableSize * 1024;
+            event.commit();
+        }
+        return nextBlock;
     }
 
     public int getNumFields() {
@@ -511,6 +320,15 @@ public class PdxReader {
         return tableStringArray;
     }
 
+    /**
+     * Parsed header of the table
+     *
+     * @return header, or null if the file could not be read
+     */
+    public PdxHeader getHeader() {
+        return header;
+    }
+
     public int[] getFieldSize() {
         int[] maxFSize = new int[numFields + 1];
         for (int i = 1; i <= numFields; i++) {
@@ -0,0 +1,310 @@
+/*
+ * PdxRecordDecoder.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes records to the same Strings PdxReader.getData() holds. Rows are
+ * indexed from 1 to numFields like the columns of getData(); element 0 is
+ * unused.
+ * <p>
+ * A decoder keeps a date work object and a row to decode into, so use
+ * one decoder per thread.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxRecordDecoder {
+    private static final int ALPHA = 0;
+    private static final int DATE = 1;
+    private static final int SHORT = 2;
+    private static final int INT = 3;
+    private static final int CURRENCY = 4;
+    private static final int NUMBER = 5;
+    private static final int LOGICAL = 6;
+    private static final int TIME = 7;
+    private static final int TIMESTAMP = 8;
+    private static final int CONSTANT = 9;
+
+    private final PdxHeader header;
+    private final BigDate bDate = new BigDate();
+    private final int[] kinds;
+    private final int[] sizes;
+    private final int[] offsets;
+    private final String[] constants;
+    private final int[][] fieldsByKind;
+    private final String[] scratch;
+
+    /**
+     * Constructor, needs the header of the table to decode. Sorts the
+     * fields by how they are decoded once, so decoding a record runs one
+     * loop per kind of field instead of switching on the type of every
+     * field.
+     *
+     * @param header
+     */
+    public PdxRecordDecoder(PdxHeader header) {
+        this.header = header;
+        int numFields = header.getNumFields();
+        this.kinds = new int[numFields + 1];
+        this.sizes = new int[numFields + 1];
+        this.offsets = new int[numFields + 1];
+        this.constants = new String[numFields + 1];
+        this.scratch = new String[numFields + 1];
+        int[] counts = new int[CONSTANT + 1];
+        for (int j = 1; j <= numFields; j++) {
+            kinds[j] = kindOf(header.getFieldType(j));
+            sizes[j] = header.getFieldSize(j);
+            offsets[j] = header.getFieldOffset(j);
+            constants[j] = constantOf(header.getFieldType(j));
+            counts[kinds[j]]++;
+        }
+        this.fieldsByKind = new int[CONSTANT + 1][];
+        for (int kind = 0; kind <= CONSTANT; kind++) {
+            fieldsByKind[kind] = new int[counts[kind]];
+            counts[kind] = 0;
+        }
+        for (int j = 1; j <= numFields; j++) {
+            fieldsByKind[kinds[j]][counts[kinds[j]]++] = j;
+        }
+    }
+
+    private static int kindOf(int type) {
+        switch (type) {
+            case PdxReader.pxfAlpha:
+                return ALPHA;
+            case PdxReader.pxfDate:
+                return DATE;
+            case PdxReader.pxfShort:
+                return SHORT;
+            case PdxReader.pxfLong:
+            case PdxReader.pxfAutoInc:
+                return INT;
+            case PdxReader.pxfCurrency:
+                return CURRENCY;
+            case PdxReader.pxfNumber:
+                return NUMBER;
+            case PdxReader.pxfLogical:
+                return LOGICAL;
+            case PdxReader.pxfTime:
+                return TIME;
+            case PdxReader.pxfTimestamp:
+                return TIMESTAMP;
+            default:
+                return CONSTANT;
+        }
+    }
+
+    /**
+     * Value of the fields that are not decoded, e.g. BLOb references.
+     */
+    private static String constantOf(int type) {
+        switch (type) {
+            case PdxReader.pxfMemoBLOb:
+                return "<pxfMemoBLOb>";
+            case PdxReader.pxfBLOb:
+                return "<pxfBLOb>";
+            case PdxReader.pxfFmtMemoBLOb:
+                return "<pxfFmtMemoBLOb>";
+            case PdxReader.pxfOLE:
+                return "<pxfOLE>";
+            case PdxReader.pxfGraphic:
+                return "<pxfGraphic>";
+            case PdxReader.pxfBCD:
+                return "<pxfBCD>";
+            case PdxReader.pxfBytes:
+                return "<pxfBytes>";
+            default:
+                return null;
+        }
+    }
+
+    public PdxHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Decodes all fields of a record.
+     *
+     * @param data         bytes holding the record
+     * @param recordOffset offset of the record in data
+     * @return row indexed from 1 to numFields
+     */
+    public String[] decode(byte[] data, int recordOffset) {
+        String[] row = new String[offsets.length];
+        fill(data, recordOffset, row);
+        return row;
+    }
+
+    /**
+     * Decodes all fields of a record into column arrays, like the
+     * tableStringArray of PdxReader.
+     *
+     * @param data         bytes holding the record
+     * @param recordOffset offset of the record in data
+     * @param columns      arrays indexed by field number, then row
+     * @param row          row to fill
+     */
+    void decodeInto(byte[] data, int recordOffset, String[][] columns, int row) {
+        fill(data, recordOffset, scratch);
+        for (int j = 1; j < scratch.length; j++) {
+            columns[j][row] = scratch[j];
+        }
+    }
+
+    /**
+     * Decodes all fields of a record, one kind of field at a time.
+     */
+    private void fill(byte[] data, int recordOffset, String[] row) {
+        for (int j : fieldsByKind[ALPHA]) {
+            row[j] = alpha(data, recordOffset + offsets[j], sizes[j]);
+        }
+        for (int j : fieldsByKind[DATE]) {
+            row[j] = date(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[SHORT]) {
+            row[j] = shortValue(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[INT]) {
+            row[j] = intValue(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[CURRENCY]) {
+            row[j] = doubleValue("$", data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[NUMBER]) {
+            row[j] = doubleValue("", data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[LOGICAL]) {
+            row[j] = logical(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[TIME]) {
+            row[j] = time(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[TIMESTAMP]) {
+            row[j] = timestamp(data, recordOffset + offsets[j]);
+        }
+        for (int j : fieldsByKind[CONSTANT]) {
+            row[j] = constants[j];
+        }
+    }
+
+    /**
+     * Decodes one field of a record.
+     *
+     * @param field        field number, the first field is 1
+     * @param data         bytes holding the record
+     * @param recordOffset offset of the record in data
+     * @return the field as a String, "" when blank
+     */
+    public String decodeField(int field, byte[] data, int recordOffset) {
+        return format(field, data, recordOffset + offsets[field]);
+    }
+
+    /**
+     * Decodes a field value.
+     *
+     * @param field field number, the first field is 1
+     * @param data  bytes holding the value
+     * @param off   offset of the value itself in data
+     */
+    String format(int field, byte[] data, int off) {
+        switch (kinds[field]) {
+            case ALPHA:
+                return alpha(data, off, sizes[field]);
+            case DATE:
+                return date(data, off);
+            case SHORT:
+                return shortValue(data, off);
+            case INT:
+                return intValue(data, off);
+            case CURRENCY:
+                return doubleValue("$", data, off);
+            case NUMBER:
+                return doubleValue("", data, off);
+            case LOGICAL:
+                return logical(data, off);
+            case TIME:
+                return time(data, off);
+            case TIMESTAMP:
+                return timestamp(data, off);
+            default:
+                return constants[field];
+        }
+    }
+
+    /**
+     * Text without the 0 bytes. Values padded with 0 bytes at the end, the
+     * usual case, are copied as one Latin-1 run.
+     */
+    private static String alpha(byte[] data, int off, int size) {
+        int end = off + size;
+        int length = 0;
+        while (length < size && data[off + length] != 0) length++;
+        int pad = off + length;
+        while (pad < end && data[pad] == 0) pad++;
+        if (pad == end) return new String(data, off, length, StandardCharsets.ISO_8859_1);
+        StringBuilder sb = new StringBuilder(size);
+        for (int k = off; k < off + size; k++) {
+            if (data[k] != 0) sb.append((char) (data[k] & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private String date(byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 4)) return "";
+        bDate.set(PdxFieldCodec.decodeInt(data, off) - 719163);
+        return bDate.getDD() + "-" + bDate.getMM() + "-" + bDate.getYYYY();
+    }
+
+    private static String shortValue(byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 2)) return "";
+        return "" + PdxFieldCodec.decodeShort(data, off);
+    }
+
+    private static String intValue(byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 4)) return "";
+        return "" + PdxFieldCodec.decodeInt(data, off);
+    }
+
+    /**
+     * @param prefix "$" for currency, "" for numbers
+     */
+    private static String doubleValue(String prefix, byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 8)) return "";
+        return prefix + PdxFieldCodec.decodeDouble(data, off);
+    }
+
+    private static String logical(byte[] data, int off) {
+        int temp = data[off] & 0xff;
+        if (temp == 0) return "";
+        return "" + (temp ^ 0x80);
+    }
+
+    private static String time(byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 4)) return "";
+        int dTemp = PdxFieldCodec.decodeInt(data, off) / 1000;
+        int uuTemp = dTemp / 3600;
+        int mmTemp = (dTemp - (uuTemp * 3600)) / 60;
+        int ssTemp = dTemp - (uuTemp * 3600) - (mmTemp * 60);
+        return "" + uuTemp + ":" + mmTemp + ":" + ssTemp;
+    }
+
+    private static String timestamp(byte[] data, int off) {
+        if (PdxFieldCodec.isNull(data, off, 8)) return "";
+        return "" + PdxFieldCodec.decodeLong(data, off);
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * PdxRecordFilter.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+/**
+ * Predicate on raw record bytes, evaluated by scans before a record is
+ * decoded.
+ *
+ * @author Robin van Emden
+ */
+public interface PdxRecordFilter {
+
+    /**
+     * Should the record be passed on?
+     *
+     * @param data         bytes holding the record
+     * @param recordOffset offset of the record in data
+     * @return true to keep the record
+     */
+    boolean accept(byte[] data, int recordOffset);
+}
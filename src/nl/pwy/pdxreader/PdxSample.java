@@ -0,0 +1,182 @@
+/*
+ * PdxSample.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+
+/**
+ * Approximate scan that decodes a random sample of a table. By default
+ * whole blocks are sampled: a seeded random subset of the blocks is read
+ * in file order and only those are decoded, so the I/O shrinks with the
+ * fraction. With record sampling every block is read but each record is
+ * decoded with the given probability, which gives a sample free of the
+ * clustering within blocks.
+ * <p>
+ * Blocks are chosen from the chain, which costs one block header read
+ * per block. Physical sampling skips that walk and draws from all blocks
+ * of the file, where empty blocks add no records; only use it on tables
+ * that have no free blocks with stale records.
+ * <p>
+ * After run() the getters report what was sampled.
+ *
+ * @author Robin van Emden
+ */
+public class PdxSample {
+    private final PdxFile file;
+    private final double fraction;
+    private final long seed;
+    private boolean recordLevel;
+    private boolean physical;
+    private int blocksTotal;
+    private int blocksRead;
+    private long recordsSeen;
+    private long recordsSampled;
+
+    /**
+     * Constructor
+     *
+     * @param file     table to sample
+     * @param fraction part of the blocks or records to decode, from 0 to 1
+     * @param seed     seed of the random choice; the same seed gives the same sample
+     */
+    public PdxSample(PdxFile file, double fraction, long seed) {
+        if (!(fraction >= 0 && fraction <= 1)) {
+            throw new IllegalArgumentException("Sampling fraction " + fraction);
+        }
+        this.file = file;
+        this.fraction = fraction;
+        this.seed = seed;
+    }
+
+    /**
+     * Sample records within every block instead of whole blocks.
+     */
+    public void setRecordLevel(boolean recordLevel) {
+        this.recordLevel = recordLevel;
+    }
+
+    /**
+     * Draw blocks from the whole file instead of walking the chain.
+     */
+    public void setPhysical(boolean physical) {
+        this.physical = physical;
+    }
+
+    /**
+     * Decodes the sample.
+     *
+     * @param consumer receives decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public void run(Consumer<String[]> consumer) throws IOException {
+        int[] blocks;
+        if (physical) {
+            blocks = new int[file.getHeader().getFileBlocks()];
+            for (int i = 0; i < blocks.length; i++) {
+                blocks[i] = i + 1;
+            }
+        } else {
+            blocks = file.chainBlocks();
+        }
+        blocksTotal = blocks.length;
+        blocksRead = 0;
+        recordsSeen = 0;
+        recordsSampled = 0;
+        Random random = new Random(seed);
+        if (!recordLevel) {
+            blocks = choose(blocks, (int) Math.round(fraction * blocks.length), random);
+        }
+        PdxRecordDecoder decoder = new PdxRecordDecoder(file.getHeader());
+        for (int blockNumber : blocks) {
+            PdxBlock block = file.readBlock(blockNumber);
+            blocksRead++;
+            recordsSeen += block.getNumRecords();
+            for (int i = 0; i < block.getNumRecords(); i++) {
+                if (recordLevel && random.nextDouble() >= fraction) continue;
+                recordsSampled++;
+                consumer.accept(decoder.decode(block.getData(), block.getRecordOffset(i)));
+            }
+        }
+    }
+
+    /**
+     * Picks k blocks with a partial Fisher-Yates shuffle and puts them back
+     * in file order, so the reads stay sequential.
+     */
+    private static int[] choose(int[] blocks, int k, Random random) {
+        int[] pool = blocks.clone();
+        for (int i = 0; i < k; i++) {
+            int j = i + random.nextInt(pool.length - i);
+            int t = pool[i];
+            pool[i] = pool[j];
+            pool[j] = t;
+        }
+        int[] chosen = Arrays.copyOf(pool, k);
+        Arrays.sort(chosen);
+        return chosen;
+    }
+
+    /**
+     * Wanted sampling fraction.
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Fraction actually decoded: of the blocks for block sampling, of the
+     * records read for record sampling.
+     */
+    public double getSampledFraction() {
+        if (recordLevel) {
+            return recordsSeen > 0 ? (double) recordsSampled / recordsSeen : 0;
+        }
+        return blocksTotal > 0 ? (double) blocksRead / blocksTotal : 0;
+    }
+
+    /**
+     * Number of blocks sampling was drawn from.
+     */
+    public int getBlocksTotal() {
+        return blocksTotal;
+    }
+
+    /**
+     * Number of blocks read.
+     */
+    public int getBlocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * Number of records handed to the consumer.
+     */
+    public long getRecordsSampled() {
+        return recordsSampled;
+    }
+
+    /**
+     * Number of records in the table, estimated from the sample.
+     */
+    public double getEstimatedRecords() {
+        double sampled = getSampledFraction();
+        return sampled > 0 ? recordsSampled / sampled : 0;
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * PdxSnapshot.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fingerprint of a table for change data capture: a hash of every block
+ * in the chain and, per record, the primary key bytes and a hash of the
+ * record. Comparing a stored snapshot with the table hashes every block;
+ * only records of blocks whose hash is not found in the snapshot are
+ * compared, and only changed records are decoded.
+ * <pre>
+ * PdxSnapshot last = PdxSnapshot.read(new File("orders.snap"));
+ * PdxSnapshot now = last.diff(table, listener);
+ * now.write(new File("orders.snap"));
+ * </pre>
+ * Tables are keyed by their primaryKeyFields leading fields. A table
+ * without a key is compared as a multiset of records, so a changed record
+ * shows as a delete and an insert; its snapshot keeps whole records, so
+ * deleted rows can still be reported. Old records that share a key, as
+ * in a damaged keyed table, are paired one by one with the new records
+ * of that key, unchanged ones first.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxSnapshot {
+    private static final int MAGIC = 0x50445353;
+    private static final int VERSION = 1;
+
+    private final int[] types;
+    private final int[] sizes;
+    private final int primaryKeyFields;
+    private final int keyWidth;
+    private final long[] blockHashes;
+    private final byte[][] keys;
+    private final long[][] recordHashes;
+
+    private PdxSnapshot(int[] types, int[] sizes, int primaryKeyFields, int keyWidth,
+                        long[] blockHashes, byte[][] keys, long[][] recordHashes) {
+        this.types = types;
+        this.sizes = sizes;
+        this.primaryKeyFields = primaryKeyFields;
+        this.keyWidth = keyWidth;
+        this.blockHashes = blockHashes;
+        this.keys = keys;
+        this.recordHashes = recordHashes;
+    }
+
+    /**
+     * Takes a snapshot of a table without reporting changes.
+     *
+     * @throws IOException
+     */
+    public static PdxSnapshot take(PdxFile file) throws IOException {
+        return compare(null, file, null);
+    }
+
+    /**
+     * Reads a snapshot written by write().
+     *
+     * @throws IOException
+     */
+    public static PdxSnapshot read(File snapshotFile) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile), 64 * 1024));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot file: " + snapshotFile);
+            }
+            int numFields = in.readUnsignedShort();
+            int[] types = new int[numFields + 1];
+            int[] sizes = new int[numFields + 1];
+            for (int f = 1; f <= numFields; f++) {
+                types[f] = in.readUnsignedByte();
+                sizes[f] = in.readUnsignedByte();
+            }
+            int primaryKeyFields = in.readUnsignedShort();
+            int keyWidth = in.readUnsignedShort();
+            int numBlocks = in.readInt();
+            long[] blockHashes = new long[numBlocks];
+            byte[][] keys = new byte[numBlocks][];
+            long[][] recordHashes = new long[numBlocks][];
+            for (int b = 0; b < numBlocks; b++) {
+                blockHashes[b] = in.readLong();
+                int n = in.readUnsignedShort();
+                keys[b] = new byte[n * keyWidth];
+                in.readFully(keys[b]);
+                recordHashes[b] = new long[n];
+                for (int i = 0; i < n; i++) {
+                    recordHashes[b][i] = in.readLong();
+                }
+            }
+            return new PdxSnapshot(types, sizes, primaryKeyFields, keyWidth, blockHashes, keys, recordHashes);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the snapshot, replacing the file in one step.
+     *
+     * @throws IOException
+     */
+    public void write(File snapshotFile) throws IOException {
+        File temp = File.createTempFile("pdxsnap", ".tmp", snapshotFile.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp), 64 * 1024));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeShort(types.length - 1);
+                for (int f = 1; f < types.length; f++) {
+                    out.writeByte(types[f]);
+                    out.writeByte(sizes[f]);
+                }
+                out.writeShort(primaryKeyFields);
+                out.writeShort(keyWidth);
+                out.writeInt(blockHashes.length);
+                for (int b = 0; b < blockHashes.length; b++) {
+                    out.writeLong(blockHashes[b]);
+                    out.writeShort(recordHashes[b].length);
+                    out.write(keys[b]);
+                    for (long hash : recordHashes[b]) {
+                        out.writeLong(hash);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Reports the records that changed since this snapshot and takes a new
+     * snapshot of the table.
+     *
+     * @param file     the table now
+     * @param listener receives inserted, updated and deleted rows
+     * @return the snapshot of the table now
+     * @throws IOException
+     * @throws IllegalArgumentException if the fields or key of the table changed
+     */
+    public PdxSnapshot diff(PdxFile file, PdxChangeListener listener) throws IOException {
+        return compare(this, file, listener);
+    }
+
+    public int getNumBlocks() {
+        return blockHashes.length;
+    }
+
+    public long getNumRecords() {
+        long n = 0;
+        for (long[] hashes : recordHashes) {
+            n += hashes.length;
+        }
+        return n;
+    }
+
+    /**
+     * Is the table compared by primary key?
+     */
+    public boolean isKeyed() {
+        return primaryKeyFields > 0;
+    }
+
+    private static PdxSnapshot compare(PdxSnapshot old, PdxFile file, PdxChangeListener listener)
+            throws IOException {
+        PdxHeader header = file.getHeader();
+        int numFields = header.getNumFields();
+        int recordSize = header.getRecordSize();
+        int[] types = new int[numFields + 1];
+        int[] sizes = new int[numFields + 1];
+        for (int f = 1; f <= numFields; f++) {
+            types[f] = header.getFieldType(f);
+            sizes[f] = header.getFieldSize(f);
+        }
+        int primaryKeyFields = Math.max(0, Math.min(header.getPrimaryKeyFields(), numFields));
+        int keyWidth = primaryKeyFields > 0 ? header.getFieldOffset(primaryKeyFields + 1) : recordSize;
+        if (old != null && (!Arrays.equals(old.types, types) || !Arrays.equals(old.sizes, sizes)
+                || old.primaryKeyFields != primaryKeyFields)) {
+            throw new IllegalArgumentException("Fields or primary key of " + file.getFile() + " changed");
+        }
+
+        // old blocks by hash, to pair them with unchanged new blocks
+        Map<Long, List<Integer>> oldBlocks = new HashMap<Long, List<Integer>>();
+        if (old != null) {
+            for (int b = 0; b < old.blockHashes.length; b++) {
+                List<Integer> same = oldBlocks.get(old.blockHashes[b]);
+                if (same == null) {
+                    same = new ArrayList<Integer>(1);
+                    oldBlocks.put(old.blockHashes[b], same);
+                }
+                same.add(b);
+            }
+        }
+        List<Long> blockHashes = new ArrayList<Long>();
+        List<byte[]> keys = new ArrayList<byte[]>();
+        List<long[]> recordHashes = new ArrayList<long[]>();
+        List<PdxBlock> changed = new ArrayList<PdxBlock>();
+        List<Integer> changedBlocks = new ArrayList<Integer>();
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                int n = block.getNumRecords();
+                long blockHash = PdxBytes.hash64(data, block.getRecordOffset(0), n * recordSize);
+                byte[] blockKeys = new byte[n * keyWidth];
+                long[] hashes = new long[n];
+                for (int i = 0; i < n; i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    System.arraycopy(data, recordOffset, blockKeys, i * keyWidth, keyWidth);
+                    hashes[i] = PdxBytes.hash64(data, recordOffset, recordSize);
+                }
+                List<Integer> same = oldBlocks.get(blockHash);
+                if (same != null && !same.isEmpty()) {
+                    same.remove(same.size() - 1);
+                } else if (old != null) {
+                    changed.add(block);
+                    changedBlocks.add(blockHashes.size());
+                }
+                blockHashes.add(blockHash);
+                keys.add(blockKeys);
+                recordHashes.add(hashes);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        if (old != null) {
+            report(old, oldBlocks, header, keyWidth, changed, changedBlocks, keys, recordHashes, listener);
+        }
+        long[] hashes = new long[blockHashes.size()];
+        for (int b = 0; b < hashes.length; b++) {
+            hashes[b] = blockHashes.get(b);
+        }
+        return new PdxSnapshot(types, sizes, primaryKeyFields, keyWidth, hashes,
+                keys.toArray(new byte[0][]), recordHashes.toArray(new long[0][]));
+    }
+
+    /**
+     * Compares the records of the old blocks left unpaired with those of
+     * the changed new blocks.
+     */
+    private static void report(PdxSnapshot old, Map<Long, List<Integer>> unpaired, PdxHeader header, int keyWidth,
+                               List<PdxBlock> changed, List<Integer> changedBlocks, List<byte[]> keys,
+                               List<long[]> recordHashes, PdxChangeListener listener) {
+        boolean keyed = old.primaryKeyFields > 0;
+        // key of a record as a String of ISO-8859-1 chars; the hashes of the old records with that key,
+        // more than one for a damaged keyed table or equal records without key
+        Map<String, List<Long>> before = new LinkedHashMap<String, List<Long>>();
+        for (List<Integer> blocks : unpaired.values()) {
+            for (int b : blocks) {
+                byte[] blockKeys = old.keys[b];
+                for (int i = 0; i < old.recordHashes[b].length; i++) {
+                    String key = new String(blockKeys, i * keyWidth, keyWidth, StandardCharsets.ISO_8859_1);
+                    List<Long> entry = before.get(key);
+                    if (entry == null) {
+                        entry = new ArrayList<Long>(1);
+                        before.put(key, entry);
+                    }
+                    entry.add(old.recordHashes[b][i]);
+                }
+            }
+        }
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        for (int c = 0; c < changed.size(); c++) {
+            PdxBlock block = changed.get(c);
+            byte[] data = block.getData();
+            int b = changedBlocks.get(c);
+            byte[] blockKeys = keys.get(b);
+            long[] hashes = recordHashes.get(b);
+            for (int i = 0; i < hashes.length; i++) {
+                String key = new String(blockKeys, i * keyWidth, keyWidth, StandardCharsets.ISO_8859_1);
+                List<Long> entry = before.get(key);
+                int recordOffset = block.getRecordOffset(i);
+                if (entry == null) {
+                    listener.inserted(decoder.decode(data, recordOffset));
+                    continue;
+                }
+                // pair with an unchanged old record first
+                int match = entry.indexOf(hashes[i]);
+                if (match >= 0) {
+                    entry.remove(match);
+                } else {
+                    entry.remove(0);
+                    if (keyed) listener.updated(decoder.decode(data, recordOffset));
+                }
+                if (entry.isEmpty()) before.remove(key);
+            }
+        }
+        int fields = keyed ? old.primaryKeyFields : header.getNumFields();
+        for (Map.Entry<String, List<Long>> gone : before.entrySet()) {
+            byte[] record = gone.getKey().getBytes(StandardCharsets.ISO_8859_1);
+            for (int k = 0; k < gone.getValue().size(); k++) {
+                String[] row = new String[header.getNumFields() + 1];
+                for (int f = 1; f <= fields; f++) {
+                    row[f] = decoder.decodeField(f, record, 0);
+                }
+                listener.deleted(row);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * PdxSort.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * Sorts the records of a table on one or more fields. Every record is
+ * reduced to a normalized key: bytes that compare unsigned in the wanted
+ * order, followed by the raw record. Records are only decoded to Strings
+ * when they are handed out.
+ * <p>
+ * top(n) keeps the n best records in a bounded heap, with the record's
+ * position in the chain after the key so that ties keep their order in
+ * the table, as in sort(). sort() buffers
+ * records up to the memory budget, then writes each sorted buffer to a
+ * temporary run file and merges the runs.
+ *
+ * @author Robin van Emden
+ */
+public class PdxSort {
+    private final PdxFile file;
+    private final int[] fields;
+    private final boolean[] descending;
+    private final int keyWidth;
+    private final int entryWidth;
+    private final Comparator<byte[]> order;
+    private long memoryBudget = 64L * 1024 * 1024;
+    private File tempDirectory;
+    private PdxRecordFilter filter;
+
+    /**
+     * Constructor
+     *
+     * @param file       table to sort
+     * @param fields     fields to sort on, most significant first
+     * @param descending per field, sort from high to low; null for all ascending
+     */
+    public PdxSort(PdxFile file, int[] fields, boolean[] descending) {
+        if (fields.length == 0) {
+            throw new IllegalArgumentException("No sort fields");
+        }
+        this.file = file;
+        this.fields = fields.clone();
+        this.descending = descending != null ? descending.clone() : new boolean[fields.length];
+        int width = 0;
+        for (int field : fields) {
+            file.fieldType(field);
+            width += keyWidth(field);
+        }
+        this.keyWidth = width;
+        this.entryWidth = keyWidth + file.getHeader().getRecordSize();
+        this.order = new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return Arrays.compareUnsigned(a, 0, keyWidth, b, 0, keyWidth);
+            }
+        };
+    }
+
+    /**
+     * Maximum number of bytes of records kept in memory by sort() before
+     * spilling to a run file. Default 64MB.
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Directory for run files, null for java.io.tmpdir.
+     */
+    public void setTempDirectory(File tempDirectory) {
+        this.tempDirectory = tempDirectory;
+    }
+
+    /**
+     * Only sort records accepted by the filter, null for all records.
+     */
+    public void setFilter(PdxRecordFilter filter) {
+        this.filter = filter;
+    }
+
+    private int keyWidth(int field) {
+        switch (file.getHeader().getFieldType(field)) {
+            case PdxReader.pxfCurrency:
+            case PdxReader.pxfNumber:
+                return 8;
+            default:
+                return file.getHeader().getFieldWidth(field);
+        }
+    }
+
+    /**
+     * Writes the normalized key of a record. Alpha, integer, date and time
+     * fields are stored hi-byte first with the sign bit flipped, which
+     * already compares correctly as unsigned bytes, blanks first; doubles
+     * are converted so that negative values order correctly too.
+     */
+    private void key(byte[] data, int recordOffset, byte[] entry, int k) {
+        PdxHeader header = file.getHeader();
+        for (int f = 0; f < fields.length; f++) {
+            int field = fields[f];
+            int off = recordOffset + header.getFieldOffset(field);
+            int width = keyWidth(field);
+            int type = header.getFieldType(field);
+            if ((type == PdxReader.pxfCurrency || type == PdxReader.pxfNumber)
+                    && PdxFieldCodec.rawLong(data, off) != 0) {
+                long bits = Double.doubleToLongBits(PdxFieldCodec.decodeDouble(data, off));
+                bits ^= (bits >> 63) | 0x8000000000000000L;
+                for (int i = 0; i < 8; i++) {
+                    entry[k + i] = (byte) (bits >>> (56 - 8 * i));
+                }
+            } else {
+                System.arraycopy(data, off, entry, k, width);
+            }
+            if (descending[f]) {
+                for (int i = k; i < k + width; i++) {
+                    entry[i] = (byte) ~entry[i];
+                }
+            }
+            k += width;
+        }
+    }
+
+    /**
+     * The first n records in sort order, using memory for n records.
+     *
+     * @param n number of records
+     * @return decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public List<String[]> top(int n) throws IOException {
+        // key, ordinal in the chain, record
+        final int tieWidth = keyWidth + 8;
+        Comparator<byte[]> stable = new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return Arrays.compareUnsigned(a, 0, tieWidth, b, 0, tieWidth);
+            }
+        };
+        PriorityQueue<byte[]> heap = new PriorityQueue<byte[]>(Math.max(1, n), Collections.reverseOrder(stable));
+        byte[] scratch = new byte[tieWidth + file.getHeader().getRecordSize()];
+        int recordSize = file.getHeader().getRecordSize();
+        long ordinal = 0;
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext() && n > 0) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (filter != null && !filter.accept(data, recordOffset)) continue;
+                    key(data, recordOffset, scratch, 0);
+                    long position = ordinal++;
+                    for (int b = 0; b < 8; b++) {
+                        scratch[keyWidth + b] = (byte) (position >>> (56 - 8 * b));
+                    }
+                    if (heap.size() == n) {
+                        if (stable.compare(scratch, heap.peek()) >= 0) continue;
+                        byte[] worst = heap.poll();
+                        System.arraycopy(scratch, 0, worst, 0, tieWidth);
+                        System.arraycopy(data, recordOffset, worst, tieWidth, recordSize);
+                        heap.add(worst);
+                    } else {
+                        byte[] entry = scratch.clone();
+                        System.arraycopy(data, recordOffset, entry, tieWidth, recordSize);
+                        heap.add(entry);
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        byte[][] entries = heap.toArray(new byte[heap.size()][]);
+        Arrays.sort(entries, stable);
+        PdxRecordDecoder decoder = new PdxRecordDecoder(file.getHeader());
+        List<String[]> rows = new ArrayList<String[]>(entries.length);
+        for (byte[] entry : entries) {
+            rows.add(decoder.decode(entry, tieWidth));
+        }
+        return rows;
+    }
+
+    /**
+     * Hands all records to a consumer in sort order. Records with equal
+     * keys keep their order in the table.
+     *
+     * @param consumer receives decoded rows, indexed from 1
+     * @throws IOException
+     */
+    public void sort(Consumer<String[]> consumer) throws IOException {
+        int recordSize = file.getHeader().getRecordSize();
+        int capacity = (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, memoryBudget / (entryWidth + 16)));
+        List<byte[]> buffer = new ArrayList<byte[]>();
+        List<File> runs = new ArrayList<File>();
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    if (filter != null && !filter.accept(data, recordOffset)) continue;
+                    byte[] entry = new byte[entryWidth];
+                    key(data, recordOffset, entry, 0);
+                    System.arraycopy(data, recordOffset, entry, keyWidth, recordSize);
+                    buffer.add(entry);
+                    if (buffer.size() == capacity) {
+                        runs.add(spill(buffer));
+                        buffer.clear();
+                    }
+                }
+            }
+            Collections.sort(buffer, order);
+            merge(runs, buffer, consumer);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+            for (File run : runs) {
+                run.delete();
+            }
+        }
+    }
+
+    private File spill(List<byte[]> buffer) throws IOException {
+        Collections.sort(buffer, order);
+        File run = File.createTempFile("pdxsort", ".run", tempDirectory);
+        run.deleteOnExit();
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(run), 64 * 1024);
+        try {
+            for (byte[] entry : buffer) {
+                out.write(entry);
+            }
+        } finally {
+            out.close();
+        }
+        return run;
+    }
+
+    /**
+     * Merges the run files and the sorted in-memory buffer. A tie goes to
+     * the earliest source, which keeps the sort stable.
+     */
+    private void merge(List<File> runs, final List<byte[]> buffer, Consumer<String[]> consumer) throws IOException {
+        PdxRecordDecoder decoder = new PdxRecordDecoder(file.getHeader());
+        if (runs.isEmpty()) {
+            for (byte[] entry : buffer) {
+                consumer.accept(decoder.decode(entry, keyWidth));
+            }
+            return;
+        }
+        final int sources = runs.size() + 1;
+        final DataInputStream[] in = new DataInputStream[runs.size()];
+        final byte[][] current = new byte[sources][];
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(sources, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = order.compare(current[a], current[b]);
+                return c != 0 ? c : a - b;
+            }
+        });
+        int bufferPos = 0;
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                in[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), 64 * 1024));
+                current[r] = new byte[entryWidth];
+                if (read(in[r], current[r])) heap.add(r);
+            }
+            if (bufferPos < buffer.size()) {
+                current[sources - 1] = buffer.get(bufferPos++);
+                heap.add(sources - 1);
+            }
+            while (!heap.isEmpty()) {
+                int s = heap.poll();
+                consumer.accept(decoder.decode(current[s], keyWidth));
+                if (s == sources - 1) {
+                    if (bufferPos < buffer.size()) {
+                        current[s] = buffer.get(bufferPos++);
+                        heap.add(s);
+                    }
+                } else if (read(in[s], current[s])) {
+                    heap.add(s);
+                }
+            }
+        } finally {
+            for (DataInputStream stream : in) {
+                if (stream != null) stream.close();
+            }
+        }
+    }
+
+    private static boolean read(DataInputStream in, byte[] entry) throws IOException {
+        try {
+            in.readFully(entry);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * PdxSpliterator.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over the records in the chain, for parallel streams. It
+ * splits on block boundaries, using the record counts of the block
+ * headers in a PdxBlockDirectory, so every part knows its exact size
+ * (SIZED and SUBSIZED). Blocks are read when a part reaches them, and
+ * every part decodes with its own PdxRecordDecoder.
+ * <p>
+ * Rows are indexed from 1 like PdxRecordDecoder rows. I/O errors are
+ * thrown as UncheckedIOException. The sizes hold as long as the table is
+ * not written while it is streamed.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxSpliterator implements Spliterator<String[]> {
+    private final PdxFile file;
+    private final PdxBlockDirectory directory;
+    private final int end;
+    private int next;
+    private PdxBlock current;
+    private int record;
+    private PdxRecordDecoder decoder;
+
+    /**
+     * Constructor, covers the whole chain
+     *
+     * @param file table to read
+     * @throws IOException
+     */
+    public PdxSpliterator(PdxFile file) throws IOException {
+        this(file, file.blockDirectory(), 0, -1);
+    }
+
+    private PdxSpliterator(PdxFile file, PdxBlockDirectory directory, int next, int end) {
+        this.file = file;
+        this.directory = directory;
+        this.next = next;
+        this.end = end < 0 ? directory.getNumBlocks() : end;
+    }
+
+    public boolean tryAdvance(Consumer<? super String[]> action) {
+        while (current == null || record >= current.getNumRecords()) {
+            if (next >= end) return false;
+            current = read(next++);
+            record = 0;
+        }
+        action.accept(decoder().decode(current.getData(), current.getRecordOffset(record++)));
+        return true;
+    }
+
+    public void forEachRemaining(Consumer<? super String[]> action) {
+        PdxRecordDecoder decoder = decoder();
+        while (true) {
+            if (current != null) {
+                byte[] data = current.getData();
+                for (; record < current.getNumRecords(); record++) {
+                    action.accept(decoder.decode(data, current.getRecordOffset(record)));
+                }
+            }
+            if (next >= end) return;
+            current = read(next++);
+            record = 0;
+        }
+    }
+
+    private PdxBlock read(int index) {
+        try {
+            return file.readBlock(directory.getBlock(index));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private PdxRecordDecoder decoder() {
+        if (decoder == null) decoder = new PdxRecordDecoder(file.getHeader());
+        return decoder;
+    }
+
+    /**
+     * Hands the second half of the blocks not yet started, by record
+     * count, to a new spliterator.
+     */
+    public Spliterator<String[]> trySplit() {
+        if (end - next < 2) return null;
+        long middle = (directory.getFirstRow(next) + directory.getFirstRow(end)) / 2;
+        int split = directory.indexOf(middle);
+        if (split <= next) split = next + 1;
+        if (split >= end) return null;
+        PdxSpliterator prefix = new PdxSpliterator(file, directory, next, split);
+        prefix.current = current;
+        prefix.record = record;
+        prefix.decoder = decoder;
+        current = null;
+        decoder = null;
+        next = split;
+        return prefix;
+    }
+
+    public long estimateSize() {
+        long size = directory.getFirstRow(end) - directory.getFirstRow(next);
+        if (current != null) size += current.getNumRecords() - record;
+        return size;
+    }
+
+    public int characteristics() {
+        return ORDERED | NONNULL | SIZED | SUBSIZED;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * PdxStreamReader.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * Reads a PDX table in a single pass from a source that can not seek, such
+ * as a pipe or a zip entry. Blocks are read in physical order and handed
+ * out in chain order; a block that is read before its turn in the chain
+ * is held until the chain reaches it, and so is a free block, for the
+ * rest of the pass. When the chain runs in physical order, as it does in
+ * a table that was written once, only one block is in memory at a time.
+ *
+ * @author Robin van Emden
+ */
+public class PdxStreamReader implements Iterator<PdxBlock>, Closeable {
+    private final ReadableByteChannel channel;
+    private final PdxHeader header;
+    private final Map<Integer, byte[]> held = new HashMap<Integer, byte[]>();
+    private int physical;
+    private int wanted;
+    private PdxBlock pending;
+
+    /**
+     * Constructor, reads the header
+     *
+     * @param channel source positioned at the start of the table
+     * @throws IOException if the source holds no valid header
+     */
+    public PdxStreamReader(ReadableByteChannel channel) throws IOException {
+        this.channel = channel;
+        byte[] fixed = new byte[4];
+        readFully(fixed, 0, fixed.length);
+        int headerSize = PdxBytes.u16le(fixed, 2);
+        if (headerSize < PdxHeader.FIXED_SIZE) {
+            throw new IOException("Invalid headerSize " + headerSize);
+        }
+        byte[] data = new byte[headerSize];
+        System.arraycopy(fixed, 0, data, 0, fixed.length);
+        readFully(data, fixed.length, headerSize - fixed.length);
+        this.header = PdxHeader.parse(data);
+        this.wanted = header.getFirstBlock();
+    }
+
+    /**
+     * Constructor, reads the header
+     *
+     * @param in source positioned at the start of the table
+     * @throws IOException if the source holds no valid header
+     */
+    public PdxStreamReader(InputStream in) throws IOException {
+        this(Channels.newChannel(in));
+    }
+
+    public PdxHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Reads len bytes.
+     *
+     * @return false at the end of the stream before the first byte
+     */
+    private boolean readFully(byte[] b, int off, int len) throws IOException {
+        ByteBuffer dst = ByteBuffer.wrap(b, off, len);
+        while (dst.hasRemaining()) {
+            if (channel.read(dst) < 0) {
+                if (dst.position() == off) return false;
+                throw new EOFException("Unexpected end of stream in block " + (physical + 1));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads ahead until the wanted block is found. A chain that points
+     * outside the file or back to a block already handed out ends.
+     */
+    private PdxBlock find() throws IOException {
+        if (wanted <= 0 || wanted > header.getFileBlocks()) return null;
+        byte[] data = held.remove(wanted);
+        while (data == null) {
+            if (wanted <= physical || physical == header.getFileBlocks()) return null;
+            byte[] block = new byte[header.getBlockSize()];
+            if (!readFully(block, 0, block.length)) return null;
+            physical++;
+            if (physical == wanted) {
+                data = block;
+            } else {
+                held.put(physical, block);
+            }
+        }
+        PdxBlock block = new PdxBlock(header, wanted, data);
+        wanted = block.getNextBlock();
+        return block;
+    }
+
+    public boolean hasNext() {
+        if (pending == null) {
+            try {
+                pending = find();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return pending != null;
+    }
+
+    public PdxBlock next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        PdxBlock block = pending;
+        pending = null;
+        return block;
+    }
+
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Decodes every record of the chain.
+     *
+     * @param consumer receives decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public void forEachRow(Consumer<String[]> consumer) throws IOException {
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        try {
+            while (hasNext()) {
+                PdxBlock block = next();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    consumer.accept(decoder.decode(block.getData(), block.getRecordOffset(i)));
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Closes the source.
+     */
+    public void close() throws IOException {
+        held.clear();
+        channel.close();
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * PdxTable.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Immutable view of a PDX table over a read-only memory mapping of the
+ * file. Everything is worked out when the table is opened: the header and
+ * the chain with the record count of every block. After that the table
+ * never changes, so any number of threads can share it and each open
+ * their own PdxCursor without locking.
+ * <p>
+ * Files larger than 2GB are mapped in segments of whole blocks. The
+ * mapping stays valid until the table is garbage collected; a table
+ * opened on a file that is later truncated fails on access.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxTable {
+    private final File file;
+    private final PdxHeader header;
+    private final MappedByteBuffer[] segments;
+    private final int blocksPerSegment;
+    private final int[] blocks;
+    private final long[] firstRow;
+
+    /**
+     * Constructor, needs Paradox DB filename
+     *
+     * @param filename resolved against user.dir first, like PdxReader
+     * @throws IOException if the file can not be mapped or has no valid header
+     */
+    public PdxTable(String filename) throws IOException {
+        this(PdxFile.resolve(filename));
+    }
+
+    /**
+     * Constructor, needs Paradox DB file
+     *
+     * @param file
+     * @throws IOException if the file can not be mapped or has no valid header
+     */
+    public PdxTable(File file) throws IOException {
+        this.file = file;
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            this.header = PdxFile.readHeader(channel);
+            int blockSize = header.getBlockSize();
+            int fileBlocks = header.getFileBlocks();
+            long available = (channel.size() - header.getHeaderSize()) / blockSize;
+            if (available < fileBlocks) {
+                throw new EOFException("File holds " + available + " of " + fileBlocks + " blocks");
+            }
+            this.blocksPerSegment = Math.max(1, Integer.MAX_VALUE / blockSize);
+            int numSegments = (fileBlocks + blocksPerSegment - 1) / blocksPerSegment;
+            this.segments = new MappedByteBuffer[numSegments];
+            for (int s = 0; s < numSegments; s++) {
+                int count = Math.min(blocksPerSegment, fileBlocks - s * blocksPerSegment);
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        header.getBlockOffset(s * blocksPerSegment + 1), (long) count * blockSize);
+            }
+        } finally {
+            channel.close();
+        }
+        int fileBlocks = header.getFileBlocks();
+        int[] chain = new int[fileBlocks];
+        long[] rows = new long[fileBlocks + 1];
+        boolean[] visited = new boolean[fileBlocks + 1];
+        byte[] blockHeader = new byte[PdxHeader.BLOCK_HEADER_SIZE];
+        ByteBuffer[] view = views();
+        int n = 0;
+        int block = header.getFirstBlock();
+        while (block > 0 && block <= fileBlocks && !visited[block]) {
+            visited[block] = true;
+            read(view, block, 0, blockHeader);
+            PdxBlock parsed = new PdxBlock(header, block, blockHeader);
+            chain[n] = block;
+            rows[n + 1] = rows[n] + parsed.getNumRecords();
+            n++;
+            block = parsed.getNextBlock();
+        }
+        this.blocks = Arrays.copyOf(chain, n);
+        this.firstRow = Arrays.copyOf(rows, n + 1);
+    }
+
+    /**
+     * Private views of the segments, with their own positions.
+     */
+    ByteBuffer[] views() {
+        ByteBuffer[] views = new ByteBuffer[segments.length];
+        for (int s = 0; s < segments.length; s++) {
+            views[s] = segments[s].duplicate();
+        }
+        return views;
+    }
+
+    /**
+     * Copies bytes of a block out of the mapping.
+     *
+     * @param views  segment views from views(), not shared between threads
+     * @param block  block number, the first block is 1
+     * @param offset offset in the block
+     * @param dst    receives dst.length bytes
+     */
+    void read(ByteBuffer[] views, int block, int offset, byte[] dst) {
+        ByteBuffer view = views[(block - 1) / blocksPerSegment];
+        view.position(((block - 1) % blocksPerSegment) * header.getBlockSize() + offset);
+        view.get(dst);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public PdxHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Number of records in the chain when the table was opened.
+     */
+    public long getNumRecords() {
+        return firstRow[blocks.length];
+    }
+
+    /**
+     * Number of blocks in the chain.
+     */
+    int getNumBlocks() {
+        return blocks.length;
+    }
+
+    int getBlock(int index) {
+        return blocks[index];
+    }
+
+    long getFirstRow(int index) {
+        return firstRow[index];
+    }
+
+    /**
+     * Position in the chain of the block holding a row, -1 past the end.
+     */
+    int indexOf(long row) {
+        if (row < 0 || row >= getNumRecords()) return -1;
+        int lo = 0;
+        int hi = blocks.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (firstRow[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Opens a cursor before the first row. A cursor belongs to one thread;
+     * open one per thread.
+     */
+    public PdxCursor cursor() {
+        return new PdxCursor(this);
+    }
+}
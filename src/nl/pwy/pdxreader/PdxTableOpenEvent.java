@@ -0,0 +1,49 @@
+/*
+ * PdxTableOpenEvent.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event spanning the complete load of a table:
+ * reading the file, parsing the header and decoding all blocks.
+ *
+ * @author Robin van Emden
+ */
+@Name("nl.pwy.pdxreader.PdxTableOpen")
+@Label("Paradox Table Open")
+@Category({"Paradox", "PdxReader"})
+@Description("Reading and decoding of a complete Paradox table")
+final class PdxTableOpenEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Record Count")
+    int recordCount;
+
+    @Label("Block Count")
+    int blockCount;
+}
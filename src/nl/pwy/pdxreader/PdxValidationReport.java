@@ -0,0 +1,80 @@
+/*
+ * PdxValidationReport.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of PdxFile.validate(): the structural problems found.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxValidationReport {
+    private final String file;
+    private final List<String> problems = new ArrayList<String>();
+    private int blocksInChain;
+    private long recordsInChain;
+
+    PdxValidationReport(String file) {
+        this.file = file;
+    }
+
+    void problem(String message) {
+        problems.add(message);
+    }
+
+    void setChain(int blocks, long records) {
+        this.blocksInChain = blocks;
+        this.recordsInChain = records;
+    }
+
+    /**
+     * Did the validation find no problems?
+     */
+    public boolean isValid() {
+        return problems.isEmpty();
+    }
+
+    public List<String> getProblems() {
+        return Collections.unmodifiableList(problems);
+    }
+
+    /**
+     * Number of blocks reached from firstBlock.
+     */
+    public int getBlocksInChain() {
+        return blocksInChain;
+    }
+
+    /**
+     * Sum of the record counts of the blocks in the chain.
+     */
+    public long getRecordsInChain() {
+        return recordsInChain;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(file);
+        sb.append(isValid() ? ": ok" : ": " + problems.size() + " problem(s)");
+        for (String p : problems) {
+            sb.append('\n').append("  ").append(p);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,477 @@
+/*
+ * PdxZoneMap.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Minimum, maximum and number of blanks of selected numeric fields for
+ * every block in the chain. A range filtered scan reads only the blocks
+ * whose range can match, which pays off when the data is clustered, e.g.
+ * entered in date order.
+ * <p>
+ * The zone map is computed by one scan and kept in a sidecar file next to
+ * the table (name.db.pzm). PdxFile.aggregate and PdxQuery collect it
+ * during the first full scan of a table that has none, for the fields
+ * they aggregate or filter on; open() adds fields to it. It is only used while the table's size,
+ * modification time, change counters and block count are the ones it was
+ * built from.
+ *
+ * @author Robin van Emden
+ */
+public final class PdxZoneMap {
+    private static final int MAGIC = 0x50445a4d;
+    private static final int VERSION = 1;
+
+    private final PdxFile file;
+    private final int[] fields;
+    private final int[] blocks;
+    private final int[] records;
+    private final double[][] mins;
+    private final double[][] maxs;
+    private final int[][] nulls;
+
+    private PdxZoneMap(PdxFile file, int[] fields, int[] blocks, int[] records,
+                       double[][] mins, double[][] maxs, int[][] nulls) {
+        this.file = file;
+        this.fields = fields;
+        this.blocks = blocks;
+        this.records = records;
+        this.mins = mins;
+        this.maxs = maxs;
+        this.nulls = nulls;
+    }
+
+    /**
+     * Sidecar file of a table.
+     */
+    public static File sidecar(File table) {
+        return new File(table.getPath() + ".pzm");
+    }
+
+    /**
+     * Zone map of a table for the given fields. A valid sidecar that covers
+     * the fields is used as it is; otherwise the table is scanned for these
+     * fields and those of the old sidecar, and the sidecar is rewritten.
+     *
+     * @param file   table
+     * @param fields numeric fields to keep statistics for
+     * @return the zone map
+     * @throws IOException
+     */
+    public static PdxZoneMap open(PdxFile file, int... fields) throws IOException {
+        for (int field : fields) {
+            if (!PdxFieldCodec.isNumeric(file.fieldType(field))) {
+                throw new IllegalArgumentException("Field " + field + " is not numeric");
+            }
+        }
+        PdxZoneMap existing = openExisting(file);
+        int[] wanted = fields.clone();
+        if (existing != null) {
+            boolean covered = true;
+            for (int field : fields) {
+                covered &= existing.hasField(field);
+            }
+            if (covered) return existing;
+            wanted = Arrays.copyOf(existing.fields, existing.fields.length + fields.length);
+            System.arraycopy(fields, 0, wanted, existing.fields.length, fields.length);
+        }
+        PdxZoneMap zoneMap = build(file, distinct(wanted));
+        zoneMap.trySave();
+        return zoneMap;
+    }
+
+    /**
+     * Zone map from the sidecar, without scanning.
+     *
+     * @return the zone map, null if there is no valid sidecar
+     * @throws IOException
+     */
+    public static PdxZoneMap openExisting(PdxFile file) throws IOException {
+        File sidecar = sidecar(file.getFile());
+        if (!sidecar.isFile()) return null;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) return null;
+            if (!readStamp(in, file)) return null;
+            int[] fields = new int[in.readUnsignedShort()];
+            for (int k = 0; k < fields.length; k++) {
+                fields[k] = in.readUnsignedShort();
+                if (fields[k] < 1 || fields[k] > file.getHeader().getNumFields()) return null;
+            }
+            int n = in.readInt();
+            int[] blocks = new int[n];
+            int[] records = new int[n];
+            for (int b = 0; b < n; b++) {
+                blocks[b] = in.readUnsignedShort();
+                records[b] = in.readUnsignedShort();
+            }
+            double[][] mins = new double[fields.length][n];
+            double[][] maxs = new double[fields.length][n];
+            int[][] nulls = new int[fields.length][n];
+            for (int k = 0; k < fields.length; k++) {
+                for (int b = 0; b < n; b++) {
+                    mins[k][b] = in.readDouble();
+                    maxs[k][b] = in.readDouble();
+                    nulls[k][b] = in.readUnsignedShort();
+                }
+            }
+            return new PdxZoneMap(file, fields, blocks, records, mins, maxs, nulls);
+        } catch (IOException e) {
+            return null;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Is there a sidecar built from the table as it is now? Only the stamp
+     * is read.
+     */
+    static boolean isCurrent(PdxFile file) throws IOException {
+        File sidecar = sidecar(file.getFile());
+        if (!sidecar.isFile()) return false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)));
+        try {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && readStamp(in, file);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes what identifies the state of the table the map was built from.
+     */
+    static void writeStamp(DataOutputStream out, PdxFile file) throws IOException {
+        PdxHeader header = file.getHeader();
+        out.writeLong(file.getFile().lastModified());
+        out.writeLong(file.length());
+        out.writeInt(header.getChangeCount1());
+        out.writeInt(header.getChangeCount2());
+        out.writeInt(header.getChangeCount4());
+        out.writeInt(header.getFileBlocks());
+        out.writeInt(header.getNumRecords());
+    }
+
+    /**
+     * Reads a stamp written by writeStamp.
+     *
+     * @return true if it matches the table as it is now
+     */
+    static boolean readStamp(DataInputStream in, PdxFile file) throws IOException {
+        PdxHeader header = file.getHeader();
+        boolean valid = in.readLong() == file.getFile().lastModified();
+        valid &= in.readLong() == file.length();
+        valid &= in.readInt() == header.getChangeCount1();
+        valid &= in.readInt() == header.getChangeCount2();
+        valid &= in.readInt() == header.getChangeCount4();
+        valid &= in.readInt() == header.getFileBlocks();
+        valid &= in.readInt() == header.getNumRecords();
+        return valid;
+    }
+
+    private static int[] distinct(int[] fields) {
+        int[] sorted = fields.clone();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) sorted[n++] = sorted[i];
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static PdxZoneMap build(PdxFile file, int[] fields) throws IOException {
+        Builder builder = new Builder(file, fields);
+        PdxBlockChain chain = file.blockChain(true);
+        try {
+            while (chain.hasNext()) {
+                builder.add(chain.next());
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+        return builder.build();
+    }
+
+    private void trySave() {
+        try {
+            save();
+        } catch (IOException ignored) {
+            // a read-only volume still gets the zone map for this session
+        }
+    }
+
+    private void save() throws IOException {
+        File sidecar = sidecar(file.getFile());
+        File temp = File.createTempFile("pdxzone", ".tmp", sidecar.getAbsoluteFile().getParentFile());
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeStamp(out, file);
+                out.writeShort(fields.length);
+                for (int field : fields) {
+                    out.writeShort(field);
+                }
+                out.writeInt(blocks.length);
+                for (int b = 0; b < blocks.length; b++) {
+                    out.writeShort(blocks[b]);
+                    out.writeShort(records[b]);
+                }
+                for (int k = 0; k < fields.length; k++) {
+                    for (int b = 0; b < blocks.length; b++) {
+                        out.writeDouble(mins[k][b]);
+                        out.writeDouble(maxs[k][b]);
+                        out.writeShort(nulls[k][b]);
+                    }
+                }
+            } finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    /**
+     * Does the zone map keep statistics for a field?
+     */
+    public boolean hasField(int field) {
+        return slot(field) >= 0;
+    }
+
+    private int slot(int field) {
+        for (int k = 0; k < fields.length; k++) {
+            if (fields[k] == field) return k;
+        }
+        return -1;
+    }
+
+    private int checkedSlot(int field) {
+        int k = slot(field);
+        if (k < 0) throw new IllegalArgumentException("No zone map for field " + field);
+        return k;
+    }
+
+    /**
+     * Number of blocks in the chain.
+     */
+    public int getNumBlocks() {
+        return blocks.length;
+    }
+
+    /**
+     * Block number at a position in the chain.
+     *
+     * @param index position, the first block in the chain is 0
+     */
+    public int getBlock(int index) {
+        return blocks[index];
+    }
+
+    public int getRecords(int index) {
+        return records[index];
+    }
+
+    /**
+     * Smallest value of a field in a block, NaN if it is blank throughout.
+     */
+    public double getMin(int field, int index) {
+        return mins[checkedSlot(field)][index];
+    }
+
+    /**
+     * Largest value of a field in a block, NaN if it is blank throughout.
+     */
+    public double getMax(int field, int index) {
+        return maxs[checkedSlot(field)][index];
+    }
+
+    /**
+     * Number of blank values of a field in a block.
+     */
+    public int getNullCount(int field, int index) {
+        return nulls[checkedSlot(field)][index];
+    }
+
+    /**
+     * May a block hold a value of a field in a range?
+     *
+     * @param index position of the block in the chain
+     * @param field field number
+     * @param from  lowest value, inclusive
+     * @param to    highest value, inclusive
+     */
+    public boolean mayContain(int index, int field, double from, double to) {
+        int k = checkedSlot(field);
+        return mins[k][index] <= to && maxs[k][index] >= from;
+    }
+
+    /**
+     * May a block hold a record for which the field compares to the value
+     * as the PdxPredicate operator says? Fields without statistics always
+     * may.
+     */
+    boolean mayMatch(int index, int field, int op, double value) {
+        int k = slot(field);
+        if (k < 0) return true;
+        double min = mins[k][index];
+        double max = maxs[k][index];
+        switch (op) {
+            case PdxPredicate.EQ:
+                return min <= value && max >= value;
+            case PdxPredicate.NE:
+                return min < max || (min == min && min != value);
+            case PdxPredicate.LT:
+                return min < value;
+            case PdxPredicate.LE:
+                return min <= value;
+            case PdxPredicate.GT:
+                return max > value;
+            case PdxPredicate.GE:
+                return max >= value;
+            case PdxPredicate.IS_NULL:
+                return nulls[k][index] > 0;
+            default:
+                return nulls[k][index] < records[index];
+        }
+    }
+
+    /**
+     * Decodes the records whose field lies in a range, reading only the
+     * blocks that may hold such records.
+     *
+     * @param field    field number, must be in the zone map
+     * @param from     lowest value, inclusive
+     * @param to       highest value, inclusive
+     * @param consumer receives decoded rows, indexed from 1 like PdxRecordDecoder rows
+     * @throws IOException
+     */
+    public void scan(int field, double from, double to, Consumer<String[]> consumer) throws IOException {
+        PdxHeader header = file.getHeader();
+        PdxRecordDecoder decoder = new PdxRecordDecoder(header);
+        int type = header.getFieldType(field);
+        int fieldOffset = header.getFieldOffset(field);
+        int[] candidates = new int[blocks.length];
+        int n = 0;
+        for (int b = 0; b < blocks.length; b++) {
+            if (mayContain(b, field, from, to)) candidates[n++] = blocks[b];
+        }
+        PdxBlockChain chain = new PdxBlockChain(file, Arrays.copyOf(candidates, n), true);
+        try {
+            while (chain.hasNext()) {
+                PdxBlock block = chain.next();
+                byte[] data = block.getData();
+                for (int i = 0; i < block.getNumRecords(); i++) {
+                    int recordOffset = block.getRecordOffset(i);
+                    double v = PdxFieldCodec.decodeNumber(type, data, recordOffset + fieldOffset);
+                    if (v >= from && v <= to) {
+                        consumer.accept(decoder.decode(data, recordOffset));
+                    }
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            chain.close();
+        }
+    }
+
+    /**
+     * Collects a zone map from the blocks of a scan that reads the whole
+     * chain anyway, so that the first full scan of a table leaves a sidecar
+     * for the scans after it. The blocks must be added in chain order.
+     */
+    static final class Builder {
+        private final PdxFile file;
+        private final int[] fields;
+        private final int[] blocks;
+        private final int[] records;
+        private final double[][] mins;
+        private final double[][] maxs;
+        private final int[][] nulls;
+        private int n;
+
+        Builder(PdxFile file, int... fields) {
+            int capacity = file.getHeader().getFileBlocks();
+            this.file = file;
+            this.fields = distinct(fields);
+            this.blocks = new int[capacity];
+            this.records = new int[capacity];
+            this.mins = new double[this.fields.length][capacity];
+            this.maxs = new double[this.fields.length][capacity];
+            this.nulls = new int[this.fields.length][capacity];
+        }
+
+        void add(PdxBlock block) {
+            PdxHeader header = file.getHeader();
+            blocks[n] = block.getBlockNumber();
+            records[n] = block.getNumRecords();
+            for (int k = 0; k < fields.length; k++) {
+                PdxAggregate a = new PdxAggregate();
+                a.accumulate(header.getFieldType(fields[k]), block.getData(),
+                        block.getRecordOffset(0) + header.getFieldOffset(fields[k]),
+                        block.getNumRecords(), header.getRecordSize());
+                mins[k][n] = a.getMin();
+                maxs[k][n] = a.getMax();
+                nulls[k][n] = (int) (a.getCount() - a.getCountNonNull());
+            }
+            n++;
+        }
+
+        PdxZoneMap build() {
+            double[][] mins = new double[fields.length][];
+            double[][] maxs = new double[fields.length][];
+            int[][] nulls = new int[fields.length][];
+            for (int k = 0; k < fields.length; k++) {
+                mins[k] = Arrays.copyOf(this.mins[k], n);
+                maxs[k] = Arrays.copyOf(this.maxs[k], n);
+                nulls[k] = Arrays.copyOf(this.nulls[k], n);
+            }
+            return new PdxZoneMap(file, fields, Arrays.copyOf(blocks, n), Arrays.copyOf(records, n),
+                    mins, maxs, nulls);
+        }
+
+        /**
+         * Builds the zone map from the blocks added and writes the sidecar,
+         * when the volume allows it.
+         */
+        PdxZoneMap save() {
+            PdxZoneMap zoneMap = build();
+            zoneMap.trySave();
+            return zoneMap;
+        }
+    }
+}
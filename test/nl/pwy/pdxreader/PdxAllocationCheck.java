@@ -0,0 +1,268 @@
+/*
+ * PdxAllocationCheck.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.DoubleConsumer;
+
+/**
+ * Guards the decode paths against allocation regressions. A generated
+ * table with a field of every type is read through PdxReader, the
+ * streaming reader and the column table, and the heap bytes allocated per
+ * record by the reading thread are compared with fixed budgets.
+ * <p>
+ * Allocation is measured with com.sun.management.ThreadMXBean; each path
+ * is run a few times first so the measured run sees compiled code, and
+ * the lowest of three runs counts. It lives in the test sources, so it is
+ * not part of PdxReader.jar; a build runs it with
+ * <pre>
+ * javac --release 11 -d out/test/PdxReader $(find src test -name '*.java')
+ * java -cp out/test/PdxReader nl.pwy.pdxreader.PdxAllocationCheck [rows]
+ * </pre>
+ * which exits with status 1 when a budget is exceeded or the generated
+ * table does not validate, 2 when allocation can not be measured.
+ *
+ * @author Robin van Emden
+ */
+final class PdxAllocationCheck {
+    /**
+     * Bytes per record for PdxReader, which keeps every value as a String.
+     */
+    static final int READER_BUDGET = 960;
+    /**
+     * Bytes per record for PdxStreamReader.forEachRow.
+     */
+    static final int STREAM_BUDGET = 1200;
+    /**
+     * Bytes per record for loading a PdxColumnTable; the columns
+     * themselves are off-heap.
+     */
+    static final int COLUMN_LOAD_BUDGET = 224;
+    /**
+     * Bytes per record for reading every numeric column of a
+     * PdxColumnTable with getNumber() or scan().
+     */
+    static final int COLUMN_SCAN_BUDGET = 8;
+
+    private static final int WARMUP = 3;
+    private static final int RUNS = 3;
+
+    /**
+     * Outcome for one decode path.
+     */
+    static final class Result {
+        private final String path;
+        private final long records;
+        private final double bytesPerRecord;
+        private final int budget;
+
+        Result(String path, long records, double bytesPerRecord, int budget) {
+            this.path = path;
+            this.records = records;
+            this.bytesPerRecord = bytesPerRecord;
+            this.budget = budget;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getRecords() {
+            return records;
+        }
+
+        public double getBytesPerRecord() {
+            return bytesPerRecord;
+        }
+
+        public int getBudget() {
+            return budget;
+        }
+
+        public boolean isPassed() {
+            return bytesPerRecord <= budget;
+        }
+
+        public String toString() {
+            return (isPassed() ? "ok   " : "FAIL ") + path + ": " + Math.round(bytesPerRecord)
+                    + " bytes/record, budget " + budget;
+        }
+    }
+
+    /**
+     * A piece of work to measure.
+     */
+    private interface Run {
+        void run() throws IOException;
+    }
+
+    private PdxAllocationCheck() {
+    }
+
+    /**
+     * Can this runtime measure allocation per thread?
+     */
+    static boolean isSupported() {
+        try {
+            com.sun.management.ThreadMXBean bean = bean();
+            return bean != null && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean bean() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean) bean : null;
+    }
+
+    /**
+     * Measures all paths on a generated table.
+     *
+     * @param rows number of records in the table
+     * @return one result per path
+     * @throws IOException if the generated table does not validate
+     * @throws UnsupportedOperationException if allocation can not be measured
+     */
+    static List<Result> run(final int rows) throws IOException {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("Thread allocation measurement is not available");
+        }
+        final byte[] table = PdxTableBuilder.allTypes(rows).toBytes();
+        List<Result> results = new ArrayList<Result>();
+
+        results.add(measure("PdxReader", rows, READER_BUDGET, new Run() {
+            public void run() throws IOException {
+                new PdxReader(ByteBuffer.wrap(table));
+            }
+        }));
+
+        final Consumer<String[]> sink = new Consumer<String[]>() {
+            public void accept(String[] row) {
+            }
+        };
+        results.add(measure("PdxStreamReader", rows, STREAM_BUDGET, new Run() {
+            public void run() throws IOException {
+                PdxStreamReader reader = new PdxStreamReader(new ByteArrayInputStream(table));
+                try {
+                    reader.forEachRow(sink);
+                } finally {
+                    reader.close();
+                }
+            }
+        }));
+
+        File temp = File.createTempFile("pdxalloc", ".db");
+        try {
+            Files.write(temp.toPath(), table);
+            final PdxFile file = new PdxFile(temp);
+            try {
+                PdxValidationReport report = file.validate();
+                if (!report.isValid()) throw new IOException("Generated table is invalid: " + report);
+                results.add(measure("PdxColumnTable.load", rows, COLUMN_LOAD_BUDGET, new Run() {
+                    public void run() throws IOException {
+                        PdxColumnTable.load(file).close();
+                    }
+                }));
+                final PdxColumnTable columns = PdxColumnTable.load(file);
+                try {
+                    final PdxHeader header = file.getHeader();
+                    results.add(measure("PdxColumnTable.getNumber", rows, COLUMN_SCAN_BUDGET, new Run() {
+                        public void run() {
+                            double sum = 0;
+                            for (int f = 1; f <= header.getNumFields(); f++) {
+                                if (!PdxFieldCodec.isNumeric(header.getFieldType(f))) continue;
+                                for (long row = 0; row < columns.getNumRows(); row++) {
+                                    double v = columns.getNumber(f, row);
+                                    if (v == v) sum += v;
+                                }
+                            }
+                            if (sum == -1) throw new IllegalStateException();
+                        }
+                    }));
+                    final double[] sum = new double[1];
+                    final DoubleConsumer adder = new DoubleConsumer() {
+                        public void accept(double v) {
+                            if (v == v) sum[0] += v;
+                        }
+                    };
+                    results.add(measure("PdxColumnTable.scan", rows, COLUMN_SCAN_BUDGET, new Run() {
+                        public void run() {
+                            for (int f = 1; f <= header.getNumFields(); f++) {
+                                if (PdxFieldCodec.isNumeric(header.getFieldType(f))) columns.scan(f, adder);
+                            }
+                        }
+                    }));
+                } finally {
+                    columns.close();
+                }
+            } finally {
+                file.close();
+            }
+        } finally {
+            temp.delete();
+        }
+        return results;
+    }
+
+    /**
+     * Writes one line per decode path and exits with status 1 when a
+     * budget is exceeded.
+     *
+     * @param args number of records, 20000 by default
+     */
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        try {
+            boolean passed = true;
+            for (Result result : run(rows)) {
+                System.out.println(result);
+                passed &= result.isPassed();
+            }
+            System.exit(passed ? 0 : 1);
+        } catch (UnsupportedOperationException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+        } catch (IOException e) {
+            System.err.println(e);
+            System.exit(1);
+        }
+    }
+
+    private static Result measure(String path, int rows, int budget, Run run) throws IOException {
+        com.sun.management.ThreadMXBean bean = bean();
+        long thread = Thread.currentThread().getId();
+        for (int i = 0; i < WARMUP; i++) {
+            run.run();
+        }
+        long least = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long before = bean.getThreadAllocatedBytes(thread);
+            run.run();
+            least = Math.min(least, bean.getThreadAllocatedBytes(thread) - before);
+        }
+        return new Result(path, rows, rows > 0 ? (double) least / rows : 0, budget);
+    }
+}
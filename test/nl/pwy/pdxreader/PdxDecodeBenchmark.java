@@ -0,0 +1,244 @@
+/*
+ * PdxDecodeBenchmark.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Times PdxRecordDecoder.decode against the switch on the field type per
+ * field that it replaced, on a generated table with a field of every
+ * type. Both decoders must produce the same rows; the time per record is
+ * the lowest of a number of runs, taken in turns, after a warmup. It lives in the test
+ * sources like PdxAllocationCheck and is run with
+ * <pre>
+ * javac --release 11 -d out/test/PdxReader $(find src test -name '*.java')
+ * java -cp out/test/PdxReader nl.pwy.pdxreader.PdxDecodeBenchmark [rows]
+ * </pre>
+ * which exits with status 1 when the rows differ.
+ *
+ * @author Robin van Emden
+ */
+final class PdxDecodeBenchmark {
+    private static final int WARMUP = 10;
+    private static final int RUNS = 10;
+
+    /**
+     * The decoder as it was before the fields were sorted by kind: every
+     * field looks up its type, size and offset in the header and switches
+     * on the type.
+     */
+    static final class SwitchDecoder {
+        private final PdxHeader header;
+        private final BigDate bDate = new BigDate();
+
+        SwitchDecoder(PdxHeader header) {
+            this.header = header;
+        }
+
+        String[] decode(byte[] data, int recordOffset) {
+            String[] row = new String[header.getNumFields() + 1];
+            for (int j = 1; j < row.length; j++) {
+                row[j] = format(j, data, recordOffset + header.getFieldOffset(j));
+            }
+            return row;
+        }
+
+        String format(int field, byte[] data, int off) {
+            int size = header.getFieldSize(field);
+            switch (header.getFieldType(field)) {
+                case PdxReader.pxfAlpha: {
+                    StringBuilder sb = new StringBuilder(size);
+                    for (int k = off; k < off + size; k++) {
+                        if (data[k] != 0) sb.append((char) (data[k] & 0xff));
+                    }
+                    return sb.toString();
+                }
+                case PdxReader.pxfDate: {
+                    if (PdxFieldCodec.isNull(data, off, 4)) return "";
+                    bDate.set(PdxFieldCodec.decodeInt(data, off) - 719163);
+                    return bDate.getDD() + "-" + bDate.getMM() + "-" + bDate.getYYYY();
+                }
+                case PdxReader.pxfShort: {
+                    if (PdxFieldCodec.isNull(data, off, 2)) return "";
+                    return "" + PdxFieldCodec.decodeShort(data, off);
+                }
+                case PdxReader.pxfLong:
+                case PdxReader.pxfAutoInc: {
+                    if (PdxFieldCodec.isNull(data, off, 4)) return "";
+                    return "" + PdxFieldCodec.decodeInt(data, off);
+                }
+                case PdxReader.pxfCurrency: {
+                    if (PdxFieldCodec.isNull(data, off, 8)) return "";
+                    return "$" + PdxFieldCodec.decodeDouble(data, off);
+                }
+                case PdxReader.pxfNumber: {
+                    if (PdxFieldCodec.isNull(data, off, 8)) return "";
+                    return "" + PdxFieldCodec.decodeDouble(data, off);
+                }
+                case PdxReader.pxfLogical: {
+                    int temp = data[off] & 0xff;
+                    if (temp == 0) return "";
+                    return "" + (temp ^ 0x80);
+                }
+                case PdxReader.pxfTime: {
+                    if (PdxFieldCodec.isNull(data, off, 4)) return "";
+                    int dTemp = PdxFieldCodec.decodeInt(data, off) / 1000;
+                    int uuTemp = dTemp / 3600;
+                    int mmTemp = (dTemp - (uuTemp * 3600)) / 60;
+                    int ssTemp = dTemp - (uuTemp * 3600) - (mmTemp * 60);
+                    return "" + uuTemp + ":" + mmTemp + ":" + ssTemp;
+                }
+                case PdxReader.pxfTimestamp: {
+                    if (PdxFieldCodec.isNull(data, off, 8)) return "";
+                    return "" + PdxFieldCodec.decodeLong(data, off);
+                }
+                case PdxReader.pxfMemoBLOb:
+                    return "<pxfMemoBLOb>";
+                case PdxReader.pxfBLOb:
+                    return "<pxfBLOb>";
+                case PdxReader.pxfFmtMemoBLOb:
+                    return "<pxfFmtMemoBLOb>";
+                case PdxReader.pxfOLE:
+                    return "<pxfOLE>";
+                case PdxReader.pxfGraphic:
+                    return "<pxfGraphic>";
+                case PdxReader.pxfBCD:
+                    return "<pxfBCD>";
+                case PdxReader.pxfBytes:
+                    return "<pxfBytes>";
+                default:
+                    return null;
+            }
+        }
+    }
+
+    /**
+     * Decodes every record of the table once.
+     */
+    private interface Run {
+        long run();
+    }
+
+    private PdxDecodeBenchmark() {
+    }
+
+    /**
+     * Prints the time per record of both decoders and exits with status 1
+     * when they decode a record differently.
+     *
+     * @param args number of records, 200000 by default
+     */
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        final List<PdxBlock> blocks = new ArrayList<PdxBlock>();
+        PdxHeader header;
+        File temp = File.createTempFile("pdxdecode", ".db");
+        try {
+            Files.write(temp.toPath(), PdxTableBuilder.allTypes(rows).toBytes());
+            PdxFile file = new PdxFile(temp);
+            try {
+                header = file.getHeader();
+                PdxBlockChain chain = file.blockChain(false);
+                try {
+                    while (chain.hasNext()) {
+                        blocks.add(chain.next());
+                    }
+                } finally {
+                    chain.close();
+                }
+            } finally {
+                file.close();
+            }
+        } finally {
+            temp.delete();
+        }
+
+        final SwitchDecoder before = new SwitchDecoder(header);
+        final PdxRecordDecoder after = new PdxRecordDecoder(header);
+        for (PdxBlock block : blocks) {
+            for (int i = 0; i < block.getNumRecords(); i++) {
+                int recordOffset = block.getRecordOffset(i);
+                if (!Arrays.equals(before.decode(block.getData(), recordOffset),
+                        after.decode(block.getData(), recordOffset))) {
+                    System.err.println("Rows differ in block " + block.getBlockNumber() + ", record " + i);
+                    System.exit(1);
+                }
+            }
+        }
+
+        double[] nanos = measure(rows, new Run() {
+            public long run() {
+                long n = 0;
+                for (PdxBlock block : blocks) {
+                    for (int i = 0; i < block.getNumRecords(); i++) {
+                        n += before.decode(block.getData(), block.getRecordOffset(i)).length;
+                    }
+                }
+                return n;
+            }
+        }, new Run() {
+            public long run() {
+                long n = 0;
+                for (PdxBlock block : blocks) {
+                    for (int i = 0; i < block.getNumRecords(); i++) {
+                        n += after.decode(block.getData(), block.getRecordOffset(i)).length;
+                    }
+                }
+                return n;
+            }
+        });
+        double switchNanos = nanos[0];
+        double kindNanos = nanos[1];
+        System.out.println("switch per field:   " + Math.round(switchNanos) + " ns/record");
+        System.out.println("PdxRecordDecoder:   " + Math.round(kindNanos) + " ns/record");
+        System.out.println("speedup:            " + Math.round(switchNanos / kindNanos * 100) / 100.0 + "x");
+    }
+
+    /**
+     * Times the runs in turns, so both see the same state of the machine.
+     *
+     * @return lowest time per record of each run
+     */
+    private static double[] measure(int rows, Run... runs) {
+        long check = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            for (Run run : runs) {
+                check += run.run();
+            }
+        }
+        long[] least = new long[runs.length];
+        Arrays.fill(least, Long.MAX_VALUE);
+        for (int i = 0; i < RUNS; i++) {
+            for (int r = 0; r < runs.length; r++) {
+                long start = System.nanoTime();
+                check += runs[r].run();
+                least[r] = Math.min(least[r], System.nanoTime() - start);
+            }
+        }
+        if (check == 0) throw new IllegalStateException();
+        double[] nanos = new double[runs.length];
+        for (int r = 0; r < runs.length; r++) {
+            nanos[r] = rows > 0 ? (double) least[r] / rows : 0;
+        }
+        return nanos;
+    }
+}
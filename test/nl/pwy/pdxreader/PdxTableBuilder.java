@@ -0,0 +1,294 @@
+/*
+ * PdxTableBuilder.java - 1.0
+ *
+ * Copyright (c) 2023 Robin van Emden - robin@pwy.nl
+ *
+ * nl.pwy.pdxreader.PdxReader parses Paradox DB files.
+ * Should work with versions 3 through 7.
+ *
+ * Fileformat information: Randy Beck.
+ *
+ * nl.pwy.pdxreader.PdxReader is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2, or (at your option)
+ * any later version.
+ */
+
+package nl.pwy.pdxreader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes synthetic version 7 tables, for checks that need tables of a
+ * known layout and size. Records are given as raw record bytes; the put
+ * methods encode values the way they are stored. Blocks are filled and
+ * chained in physical order.
+ *
+ * @author Robin van Emden
+ */
+final class PdxTableBuilder {
+    private static final int HEADER_SIZE = 2048;
+
+    private final int maxTableSize;
+    private final List<String> names = new ArrayList<String>();
+    private final List<Integer> types = new ArrayList<Integer>();
+    private final List<Integer> sizes = new ArrayList<Integer>();
+    private final List<byte[]> records = new ArrayList<byte[]>();
+    private int primaryKeyFields;
+    private int changeCount;
+
+    /**
+     * Constructor
+     *
+     * @param maxTableSize block size in kilobytes, 1 to 32
+     */
+    PdxTableBuilder(int maxTableSize) {
+        this.maxTableSize = maxTableSize;
+    }
+
+    /**
+     * Adds a field; BCD fields take the number of digits as size.
+     */
+    PdxTableBuilder field(String name, int type, int size) {
+        names.add(name);
+        types.add(type);
+        sizes.add(size);
+        return this;
+    }
+
+    /**
+     * Number of leading fields that form the primary key.
+     */
+    PdxTableBuilder primaryKeyFields(int n) {
+        this.primaryKeyFields = n;
+        return this;
+    }
+
+    /**
+     * Value of the header change counters.
+     */
+    PdxTableBuilder changeCount(int n) {
+        this.changeCount = n;
+        return this;
+    }
+
+    int getNumFields() {
+        return names.size();
+    }
+
+    /**
+     * Bytes the field occupies in a record.
+     *
+     * @param field field number, the first field is 1
+     */
+    int getFieldWidth(int field) {
+        return types.get(field - 1) == PdxReader.pxfBCD ? 17 : sizes.get(field - 1);
+    }
+
+    /**
+     * Offset of the field from the start of its record.
+     *
+     * @param field field number, the first field is 1
+     */
+    int getFieldOffset(int field) {
+        int offset = 0;
+        for (int f = 1; f < field; f++) {
+            offset += getFieldWidth(f);
+        }
+        return offset;
+    }
+
+    int getRecordSize() {
+        return getFieldOffset(names.size() + 1);
+    }
+
+    /**
+     * A new all blank record.
+     */
+    byte[] newRecord() {
+        return new byte[getRecordSize()];
+    }
+
+    /**
+     * Adds a record.
+     *
+     * @param record raw record bytes, see newRecord
+     */
+    PdxTableBuilder record(byte[] record) {
+        records.add(record.clone());
+        return this;
+    }
+
+    static void putAlpha(byte[] record, int off, int width, String value) {
+        for (int i = 0; i < width; i++) {
+            record[off + i] = i < value.length() ? (byte) value.charAt(i) : 0;
+        }
+    }
+
+    static void putShort(byte[] record, int off, int value) {
+        int raw = (value ^ 0x8000) & 0xffff;
+        record[off] = (byte) (raw >>> 8);
+        record[off + 1] = (byte) raw;
+    }
+
+    /**
+     * Long, date (day number), time (milliseconds) and autoincrement.
+     */
+    static void putInt(byte[] record, int off, int value) {
+        int raw = value ^ 0x80000000;
+        for (int i = 0; i < 4; i++) {
+            record[off + i] = (byte) (raw >>> (24 - 8 * i));
+        }
+    }
+
+    /**
+     * Timestamp.
+     */
+    static void putLong(byte[] record, int off, long value) {
+        long raw = value ^ 0x8000000000000000L;
+        for (int i = 0; i < 8; i++) {
+            record[off + i] = (byte) (raw >>> (56 - 8 * i));
+        }
+    }
+
+    /**
+     * Number and currency.
+     */
+    static void putDouble(byte[] record, int off, double value) {
+        putLong(record, off, Double.doubleToLongBits(value));
+    }
+
+    static void putLogical(byte[] record, int off, boolean value) {
+        record[off] = (byte) (0x80 | (value ? 1 : 0));
+    }
+
+    /**
+     * The table file.
+     */
+    byte[] toBytes() {
+        int recordSize = getRecordSize();
+        int blockSize = maxTableSize * 1024;
+        int perBlock = (blockSize - PdxHeader.BLOCK_HEADER_SIZE) / recordSize;
+        if (perBlock < 1) {
+            throw new IllegalStateException("Record of " + recordSize + " bytes does not fit a block");
+        }
+        int numBlocks = (records.size() + perBlock - 1) / perBlock;
+        byte[] file = new byte[HEADER_SIZE + numBlocks * blockSize];
+        int numFields = names.size();
+        putLE16(file, 0x00, recordSize);
+        putLE16(file, 0x02, HEADER_SIZE);
+        file[0x04] = (byte) (primaryKeyFields > 0 ? 0 : 2);
+        file[0x05] = (byte) maxTableSize;
+        putLE16(file, 0x06, records.size());
+        putLE16(file, 0x08, records.size() >>> 16);
+        putLE16(file, 0x0a, numBlocks);
+        putLE16(file, 0x0c, numBlocks);
+        putLE16(file, 0x0e, numBlocks > 0 ? 1 : 0);
+        putLE16(file, 0x10, numBlocks);
+        putLE16(file, 0x21, numFields);
+        putLE16(file, 0x23, primaryKeyFields);
+        file[0x2d] = (byte) changeCount;
+        file[0x2e] = (byte) changeCount;
+        file[0x39] = 0x0c;
+        putLE16(file, 0x6a, 437);
+        putLE16(file, 0x70, changeCount);
+        int p = 0x78;
+        for (int f = 0; f < numFields; f++) {
+            file[p++] = (byte) (int) types.get(f);
+            file[p++] = (byte) (int) sizes.get(f);
+        }
+        p += 83 + numFields * 4;
+        for (String name : names) {
+            for (int i = 0; i < name.length(); i++) {
+                file[p++] = (byte) name.charAt(i);
+            }
+            file[p++] = 0;
+        }
+        if (p > HEADER_SIZE) {
+            throw new IllegalStateException("Header does not fit " + HEADER_SIZE + " bytes");
+        }
+        for (int b = 0; b < numBlocks; b++) {
+            int blockOffset = HEADER_SIZE + b * blockSize;
+            int first = b * perBlock;
+            int n = Math.min(perBlock, records.size() - first);
+            putLE16(file, blockOffset, b + 1 < numBlocks ? b + 2 : 0);
+            putLE16(file, blockOffset + 2, b);
+            putLE16(file, blockOffset + 4, (n - 1) * recordSize);
+            for (int i = 0; i < n; i++) {
+                System.arraycopy(records.get(first + i), 0, file,
+                        blockOffset + PdxHeader.BLOCK_HEADER_SIZE + i * recordSize, recordSize);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Writes the table file.
+     */
+    void write(File file) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(toBytes());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void putLE16(byte[] b, int off, int value) {
+        b[off] = (byte) value;
+        b[off + 1] = (byte) (value >>> 8);
+    }
+
+    /**
+     * A table with a field of every type and rows of varied, partly blank
+     * values; the Id field (autoincrement) counts from 1.
+     *
+     * @param rows number of records
+     */
+    static PdxTableBuilder allTypes(int rows) {
+        PdxTableBuilder builder = new PdxTableBuilder(4)
+                .field("Code", PdxReader.pxfAlpha, 12)
+                .field("Day", PdxReader.pxfDate, 4)
+                .field("Qty", PdxReader.pxfShort, 2)
+                .field("Big", PdxReader.pxfLong, 4)
+                .field("Price", PdxReader.pxfCurrency, 8)
+                .field("Amount", PdxReader.pxfNumber, 8)
+                .field("Flag", PdxReader.pxfLogical, 1)
+                .field("Memo", PdxReader.pxfMemoBLOb, 11)
+                .field("Blob", PdxReader.pxfBLOb, 10)
+                .field("FmtMemo", PdxReader.pxfFmtMemoBLOb, 10)
+                .field("Ole", PdxReader.pxfOLE, 10)
+                .field("Picture", PdxReader.pxfGraphic, 10)
+                .field("At", PdxReader.pxfTime, 4)
+                .field("Stamp", PdxReader.pxfTimestamp, 8)
+                .field("Id", PdxReader.pxfAutoInc, 4)
+                .field("Bcd", PdxReader.pxfBCD, 2)
+                .field("Raw", PdxReader.pxfBytes, 6);
+        int[] off = new int[builder.getNumFields() + 1];
+        for (int f = 1; f < off.length; f++) {
+            off[f] = builder.getFieldOffset(f);
+        }
+        byte[] record = builder.newRecord();
+        for (int row = 0; row < rows; row++) {
+            Arrays.fill(record, (byte) 0);
+            putAlpha(record, off[1], 12, "C" + (row % 97));
+            if (row % 11 != 5) putInt(record, off[2], 719163 + 10000 + row % 500);
+            putShort(record, off[3], row % 100);
+            putInt(record, off[4], row * 3);
+            putDouble(record, off[5], (row % 1000) / 4.0);
+            if (row % 7 != 3) putDouble(record, off[6], row * 1.5);
+            putLogical(record, off[7], (row & 1) == 1);
+            putInt(record, off[13], (row % 86400) * 1000);
+            putLong(record, off[14], 63000000000000L + row);
+            putInt(record, off[15], row + 1);
+            record[off[17]] = (byte) row;
+            builder.record(record);
+        }
+        return builder;
+    }
+}